@@ -0,0 +1,125 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip32.crypto;
+
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.digests.SHA512Digest;
+
+/**
+ * HMAC-SHA512 keyed with a parent chain code, for deriving many children of one parent.
+ * <p>
+ * The SHA-512 states after absorbing the inner (key ^ ipad) and outer (key ^ opad)
+ * blocks are computed once, so each child only pays for compressing its own data and
+ * the inner hash, without a provider lookup or key schedule. The precomputed states
+ * are never modified, every call restores them into per-thread scratch digests, so
+ * one instance can be shared between threads.
+ *
+ * @author paymennt
+ */
+public class ChainCodeHmac {
+
+    /**  */
+    private static final int BLOCK_LENGTH = 128;
+
+    /**  */
+    private static final ThreadLocal<SHA512Digest[]> SCRATCH = ThreadLocal
+            .withInitial(() -> new SHA512Digest[] { new SHA512Digest(), new SHA512Digest() });
+
+    /** state after the inner key block */
+    private final SHA512Digest inner;
+
+    /** state after the outer key block */
+    private final SHA512Digest outer;
+
+    /**
+     *
+     *
+     * @param chainCode the HMAC key
+     */
+    public ChainCodeHmac(byte[] chainCode) {
+        byte[] key = chainCode;
+        if (key.length > BLOCK_LENGTH) {
+            SHA512Digest digest = new SHA512Digest();
+            digest.update(key, 0, key.length);
+            key = new byte[digest.getDigestSize()];
+            digest.doFinal(key, 0);
+        }
+
+        byte[] ipad = new byte[BLOCK_LENGTH];
+        byte[] opad = new byte[BLOCK_LENGTH];
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            byte k = i < key.length ? key[i] : 0;
+            ipad[i] = (byte) (k ^ 0x36);
+            opad[i] = (byte) (k ^ 0x5c);
+        }
+
+        this.inner = new SHA512Digest();
+        this.inner.update(ipad, 0, BLOCK_LENGTH);
+        this.outer = new SHA512Digest();
+        this.outer.update(opad, 0, BLOCK_LENGTH);
+        Arrays.fill(ipad, (byte) 0);
+        Arrays.fill(opad, (byte) 0);
+    }
+
+    /**
+     * Resets both precomputed states, for HMACs of a destroyed key. The instance must not
+     * be used afterwards.
+     */
+    public void clear() {
+        inner.reset();
+        outer.reset();
+    }
+
+    /**
+     *
+     *
+     * @param data
+     * @return HMAC-SHA512(Key = chain code, Data = data)
+     */
+    public byte[] hmac512(byte[] data) {
+        SHA512Digest[] scratch = SCRATCH.get();
+        SHA512Digest digest = scratch[0];
+        digest.reset(inner);
+        digest.update(data, 0, data.length);
+        return doFinal(digest, scratch[1]);
+    }
+
+    /**
+     * Derivation flavour, the child index is appended to the data without building the
+     * concatenated array.
+     *
+     * @param data serialized parent key
+     * @param child
+     * @return HMAC-SHA512(Key = chain code, Data = data || ser32(child))
+     */
+    public byte[] hmac512(byte[] data, long child) {
+        SHA512Digest[] scratch = SCRATCH.get();
+        SHA512Digest digest = scratch[0];
+        digest.reset(inner);
+        digest.update(data, 0, data.length);
+        digest.update((byte) (child >> 24));
+        digest.update((byte) (child >> 16));
+        digest.update((byte) (child >> 8));
+        digest.update((byte) child);
+        return doFinal(digest, scratch[1]);
+    }
+
+    /**
+     *
+     *
+     * @param digest the inner digest, holding the data
+     * @param outerDigest
+     * @return
+     */
+    private byte[] doFinal(SHA512Digest digest, SHA512Digest outerDigest) {
+        byte[] out = new byte[64];
+        digest.doFinal(out, 0);
+        outerDigest.reset(outer);
+        outerDigest.update(out, 0, out.length);
+        outerDigest.doFinal(out, 0);
+        return out;
+    }
+}
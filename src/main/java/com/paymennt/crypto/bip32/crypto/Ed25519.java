@@ -0,0 +1,55 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip32.crypto;
+
+import java.util.Arrays;
+
+import com.paymennt.crypto.bip32.exception.CryptoException;
+import com.paymennt.crypto.lib.Digests;
+
+import net.i2p.crypto.eddsa.math.GroupElement;
+import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
+import net.i2p.crypto.eddsa.spec.EdDSAParameterSpec;
+
+/**
+ * Direct ed25519 seed to public key computation.
+ * <p>
+ * Does what {@code new EdDSAPrivateKey(new EdDSAPrivateKeySpec(seed, spec)).getAbyte()}
+ * does, A = clamp(SHA-512(seed)[0..32]) * B over the precomputed base point of
+ * {@link #ED25519SPEC}, without building the key spec and key objects around it.
+ *
+ * @author paymennt
+ */
+public class Ed25519 {
+
+    /**  */
+    public static final EdDSAParameterSpec ED25519SPEC = EdDSANamedCurveTable.getByName("ed25519");
+
+    /**
+     *
+     *
+     * @param seed 32 byte private key seed
+     * @return 32 byte encoded public key A
+     */
+    public static byte[] publicKey(byte[] seed) {
+        if (seed.length != 32) {
+            throw new CryptoException("ed25519 seeds must be 32 bytes");
+        }
+        byte[] h = new byte[64];
+        try {
+            Digests.sha512(seed, h, 0);
+
+            // clamp, only the low 32 bytes are read by the scalar multiplication
+            h[0] &= 248;
+            h[31] &= 63;
+            h[31] |= 64;
+
+            GroupElement A = ED25519SPEC.getB().scalarMultiply(h);
+            return A.toByteArray();
+        } finally {
+            Arrays.fill(h, (byte) 0);
+        }
+    }
+}
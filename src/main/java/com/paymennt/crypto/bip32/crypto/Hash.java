@@ -4,11 +4,7 @@
  */
 package com.paymennt.crypto.bip32.crypto;
 
-import com.paymennt.crypto.bip32.exception.CryptoException;
-import org.bouncycastle.crypto.digests.RIPEMD160Digest;
-
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import com.paymennt.crypto.lib.Digests;
 
 /**
  * @author paymennt
@@ -23,12 +19,7 @@ public class Hash {
      * @return 
      */
     public static byte[] sha256(byte[] input) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            return digest.digest(input);
-        } catch (NoSuchAlgorithmException e) {
-            throw new CryptoException("Unable to find SHA-256", e);
-        }
+        return Digests.sha256(input);
     }
 
     /**
@@ -38,12 +29,7 @@ public class Hash {
      * @return 
      */
     public static byte[] sha512(byte[] input) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-512");
-            return digest.digest(input);
-        } catch (NoSuchAlgorithmException e) {
-            throw new CryptoException("Unable to find SHA-512", e);
-        }
+        return Digests.sha512(input);
     }
 
     /**
@@ -65,14 +51,7 @@ public class Hash {
      * @return 
      */
     public static byte[] sha256Twice(final byte[] bytes, final int offset, final int length) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            digest.update(bytes, offset, length);
-            digest.update(digest.digest());
-            return digest.digest();
-        } catch (NoSuchAlgorithmException e) {
-            throw new CryptoException("Unable to find SHA-256", e);
-        }
+        return Digests.sha256Twice(bytes, offset, length);
     }
 
     /**
@@ -82,12 +61,6 @@ public class Hash {
      * @return 
      */
     public static byte[] h160(byte[] input) {
-        byte[] sha256 = sha256(input);
-
-        RIPEMD160Digest digest = new RIPEMD160Digest();
-        digest.update(sha256, 0, sha256.length);
-        byte[] out = new byte[20];
-        digest.doFinal(out, 0);
-        return out;
+        return Digests.hash160(input);
     }
 }
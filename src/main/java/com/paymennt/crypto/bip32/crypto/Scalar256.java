@@ -0,0 +1,216 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip32.crypto;
+
+import java.math.BigInteger;
+
+/**
+ * A secp256k1 scalar in four 64-bit limbs, the arithmetic of child key derivation
+ * without {@link BigInteger}.
+ * <p>
+ * Scalars are mutable so that a derivation step can decode, add and encode in place:
+ * {@link #decode(byte[], int)} reads 32 big-endian bytes, {@link #addModN(Scalar256)}
+ * adds another scalar mod n and {@link #encode(byte[], int)} writes the result straight
+ * into the caller's buffer. The addition and the range check select their result
+ * through masks rather than branches. Instances are not thread safe.
+ *
+ * @author paymennt
+ */
+public final class Scalar256 {
+
+    /** the group order n, least significant limb first */
+    private static final long N0 = 0xBFD25E8CD0364141L;
+    private static final long N1 = 0xBAAEDCE6AF48A03BL;
+    private static final long N2 = 0xFFFFFFFFFFFFFFFEL;
+    private static final long N3 = 0xFFFFFFFFFFFFFFFFL;
+
+    /** limbs, l0 the least significant */
+    private long l0, l1, l2, l3;
+
+    /**
+     *
+     */
+    public Scalar256() {
+    }
+
+    /**
+     *
+     *
+     * @param bytes
+     * @param offset start of 32 big-endian bytes
+     * @return a new scalar, not reduced
+     */
+    public static Scalar256 fromBytes(byte[] bytes, int offset) {
+        return new Scalar256().decode(bytes, offset);
+    }
+
+    /**
+     * Reads 32 big-endian bytes into this scalar.
+     *
+     * @param bytes
+     * @param offset
+     * @return this
+     */
+    public Scalar256 decode(byte[] bytes, int offset) {
+        l3 = readLong(bytes, offset);
+        l2 = readLong(bytes, offset + 8);
+        l1 = readLong(bytes, offset + 16);
+        l0 = readLong(bytes, offset + 24);
+        return this;
+    }
+
+    /**
+     * Writes this scalar as 32 big-endian bytes.
+     *
+     * @param out
+     * @param offset
+     */
+    public void encode(byte[] out, int offset) {
+        writeLong(l3, out, offset);
+        writeLong(l2, out, offset + 8);
+        writeLong(l1, out, offset + 16);
+        writeLong(l0, out, offset + 24);
+    }
+
+    /**
+     *
+     *
+     * @return 32 big-endian bytes
+     */
+    public byte[] toByteArray() {
+        byte[] out = new byte[32];
+        encode(out, 0);
+        return out;
+    }
+
+    /**
+     * this = (this + other) mod n, both operands already below n.
+     *
+     * @param other
+     * @return this
+     */
+    public Scalar256 addModN(Scalar256 other) {
+        long s0 = l0 + other.l0;
+        long c = carry(l0, other.l0, s0);
+        long s1 = l1 + other.l1 + c;
+        c = carry(l1, other.l1, s1);
+        long s2 = l2 + other.l2 + c;
+        c = carry(l2, other.l2, s2);
+        long s3 = l3 + other.l3 + c;
+        c = carry(l3, other.l3, s3);
+
+        long d0 = s0 - N0;
+        long b = borrow(s0, N0, d0);
+        long d1 = s1 - N1 - b;
+        b = borrow(s1, N1, d1);
+        long d2 = s2 - N2 - b;
+        b = borrow(s2, N2, d2);
+        long d3 = s3 - N3 - b;
+        b = borrow(s3, N3, d3);
+
+        // keep the difference when the sum overflowed 2^256 or is at least n
+        long mask = -(c | (b ^ 1));
+        l0 = (d0 & mask) | (s0 & ~mask);
+        l1 = (d1 & mask) | (s1 & ~mask);
+        l2 = (d2 & mask) | (s2 & ~mask);
+        l3 = (d3 & mask) | (s3 & ~mask);
+        return this;
+    }
+
+    /**
+     *
+     *
+     * @return true when this scalar is below n
+     */
+    public boolean isBelowN() {
+        long b = borrow(l0, N0, l0 - N0);
+        long d1 = l1 - N1 - b;
+        b = borrow(l1, N1, d1);
+        long d2 = l2 - N2 - b;
+        b = borrow(l2, N2, d2);
+        long d3 = l3 - N3 - b;
+        return borrow(l3, N3, d3) != 0;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public boolean isZero() {
+        return (l0 | l1 | l2 | l3) == 0;
+    }
+
+    /**
+     *
+     *
+     * @return true when this scalar is a valid private key, within [1, n)
+     */
+    public boolean isValidKey() {
+        return !isZero() && isBelowN();
+    }
+
+    /**
+     * Writes this scalar as the eight little-endian 32-bit words of
+     * {@link FixedBaseTable#multiply(int[])}.
+     *
+     * @param out
+     */
+    public void toInts(int[] out) {
+        out[0] = (int) l0;
+        out[1] = (int) (l0 >>> 32);
+        out[2] = (int) l1;
+        out[3] = (int) (l1 >>> 32);
+        out[4] = (int) l2;
+        out[5] = (int) (l2 >>> 32);
+        out[6] = (int) l3;
+        out[7] = (int) (l3 >>> 32);
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public BigInteger toBigInteger() {
+        return new BigInteger(1, toByteArray());
+    }
+
+    /**
+     * Zeroes the limbs, for scalars that held a private key.
+     */
+    public void clear() {
+        l0 = l1 = l2 = l3 = 0;
+    }
+
+    /**
+     * Carry out of a + b (+ carry in) = sum.
+     */
+    private static long carry(long a, long b, long sum) {
+        return ((a & b) | ((a | b) & ~sum)) >>> 63;
+    }
+
+    /**
+     * Borrow out of a - b (- borrow in) = difference.
+     */
+    private static long borrow(long a, long b, long difference) {
+        return ((~a & b) | (~(a ^ b) & difference)) >>> 63;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void writeLong(long value, byte[] out, int offset) {
+        for (int i = 7; i >= 0; i--) {
+            out[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -29,6 +29,40 @@ public class Secp256k1 {
         return p.getEncoded(true);
     }
 
+    /**
+     * Compressed encodings of many points, normalized together with a single field
+     * inversion (Montgomery's trick) instead of one inversion per point.
+     *
+     * @param points finite points, replaced by their normalized form
+     * @return 33 bytes per point, in order
+     */
+    public static byte[] serP(ECPoint[] points) {
+        byte[] out = new byte[points.length * 33];
+        serP(points, out, 0);
+        return out;
+    }
+
+    /**
+     * 
+     *
+     * @param points finite points, replaced by their normalized form
+     * @param out 
+     * @param offset where the 33 bytes of the first point go
+     * @see #serP(ECPoint[])
+     */
+    public static void serP(ECPoint[] points, byte[] out, int offset) {
+        SECP.getCurve().normalizeAll(points);
+        for (ECPoint point : points) {
+            if (point.isInfinity()) {
+                throw new IllegalArgumentException("Cannot serialize the point at infinity");
+            }
+            out[offset] = (byte) (point.getAffineYCoord().testBitZero() ? 0x03 : 0x02);
+            byte[] x = point.getAffineXCoord().getEncoded();
+            System.arraycopy(x, 0, out, offset + 1, 32);
+            offset += 33;
+        }
+    }
+
     /**
      * 
      *
@@ -40,13 +74,23 @@ public class Secp256k1 {
     }
 
     /**
-     * 
+     * Multiplies the generator through the precomputed {@link FixedBaseTable}.
      *
      * @param p 
      * @return 
      */
     public static ECPoint point(BigInteger p) {
-        return SECP.getG().multiply(p);
+        return FixedBaseTable.getDefault().multiply(p);
+    }
+
+    /**
+     * 
+     *
+     * @param p scalar below n
+     * @return 
+     */
+    public static ECPoint point(Scalar256 p) {
+        return FixedBaseTable.getDefault().multiply(p);
     }
 
     /**
@@ -5,11 +5,16 @@
 package com.paymennt.crypto.bip32.wallet;
 
 import java.security.Security;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import com.paymennt.crypto.CoinType;
 import com.paymennt.crypto.bip32.Network;
+import com.paymennt.crypto.bip32.exception.CryptoException;
+import com.paymennt.crypto.bip32.wallet.key.HdKey;
 import com.paymennt.crypto.bip32.wallet.key.HdPrivateKey;
 import com.paymennt.crypto.bip32.wallet.key.HdPublicKey;
 import com.paymennt.crypto.bip39.MnemonicGenerator;
@@ -21,8 +26,23 @@ import com.paymennt.crypto.bip39.MnemonicGenerator;
 public abstract class AbstractWallet {
 
     /**  */
+    public static final int DEFAULT_CACHE_SIZE = 64;
+
+    static {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    /** the m/purpose'/coin' node, or the m/purpose'/coin'/account' node of an account level wallet */
     private HdAddress rootAddress;
 
+    /** the only account of an account level wallet, -1 otherwise */
+    private final int account;
+
+    /** parents of the derived leaves, such as the chain nodes, keyed by path */
+    private final HdAddressCache<DerivationPath> parentAddresses;
+
     /**
      * 
      *
@@ -33,15 +53,153 @@ public abstract class AbstractWallet {
      * @param coinType 
      */
     protected AbstractWallet(String words, String passphrase, Purpose purpose, Network network, CoinType coinType) {
+        this(words, passphrase, purpose, network, coinType, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * 
+     *
+     * @param words 
+     * @param passphrase 
+     * @param purpose 
+     * @param network 
+     * @param coinType 
+     * @param cacheSize maximum number of parent nodes kept in memory
+     */
+    protected AbstractWallet(String words, String passphrase, Purpose purpose, Network network, CoinType coinType,
+            int cacheSize) {
+
+        this(deriveRootAddress(words, passphrase, purpose, network, coinType), cacheSize);
+    }
+
+    /**
+     * Builds the wallet on an already derived m/purpose'/coin' node, as handed out by a
+     * {@link WalletFactory}. The wallet takes ownership of the node.
+     *
+     * @param rootAddress 
+     */
+    protected AbstractWallet(HdAddress rootAddress) {
+        this(rootAddress, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * 
+     *
+     * @param rootAddress 
+     * @param cacheSize maximum number of parent nodes kept in memory
+     */
+    protected AbstractWallet(HdAddress rootAddress, int cacheSize) {
+        this(rootAddress, -1, cacheSize);
+    }
 
-        Security.addProvider(new BouncyCastleProvider());
+    /**
+     * Builds the wallet on a stored xprv, skipping the seed stretch and the hardened
+     * derivations above it. A coin level key (m/purpose'/coin') opens every account, an
+     * account level key (m/purpose'/coin'/account') only its own.
+     *
+     * @param extendedKey Base58Check xprv string
+     * @param purpose 
+     * @param coinType 
+     */
+    protected AbstractWallet(String extendedKey, Purpose purpose, CoinType coinType) {
+        this(ExtendedKey.decode(extendedKey), purpose, coinType);
+    }
+
+    /**
+     * 
+     *
+     * @param extendedKey 78 byte xprv serialization
+     * @param purpose 
+     * @param coinType 
+     * @see #AbstractWallet(String, Purpose, CoinType)
+     */
+    protected AbstractWallet(byte[] extendedKey, Purpose purpose, CoinType coinType) {
+        this(importRootAddress(extendedKey, purpose, coinType),
+                extendedKey[4] == 3 ? ExtendedKey.getChildIndex(extendedKey) : -1, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * 
+     *
+     * @param rootAddress 
+     * @param account 
+     * @param cacheSize 
+     */
+    private AbstractWallet(HdAddress rootAddress, int account, int cacheSize) {
+        this.rootAddress = rootAddress;
+        this.account = account;
+        this.parentAddresses = new HdAddressCache<>(cacheSize);
+    }
 
+    /**
+     * Runs the seed stretch and derives the m/purpose'/coin' node.
+     *
+     * @param words 
+     * @param passphrase 
+     * @param purpose 
+     * @param network 
+     * @param coinType 
+     * @return 
+     */
+    static HdAddress deriveRootAddress(String words, String passphrase, Purpose purpose, Network network,
+            CoinType coinType) {
+        return deriveRootAddress(deriveMasterAddress(words, passphrase, network, coinType), purpose, network);
+    }
+
+    /**
+     * 
+     *
+     * @param words 
+     * @param passphrase 
+     * @param network 
+     * @param coinType 
+     * @return 
+     */
+    private static HdAddress deriveMasterAddress(String words, String passphrase, Network network,
+            CoinType coinType) {
         byte[] seed = MnemonicGenerator.getSeedFromWordlist(words, passphrase);
 
         HdAddress masterAddress = HdKeyGenerator.getAddressFromSeed(seed, network, coinType);
+        Arrays.fill(seed, (byte) 0);
+        return masterAddress;
+    }
+
+    /**
+     * 
+     *
+     * @param masterAddress 
+     * @param purpose 
+     * @param network 
+     * @return 
+     */
+    private static HdAddress deriveRootAddress(HdAddress masterAddress, Purpose purpose, Network network) {
         HdAddress purposeAddress = HdKeyGenerator.getAddress(masterAddress, purpose.bip, true);
-        this.rootAddress = HdKeyGenerator.getAddress(purposeAddress, coinType.getCoinType(network), true);
+        return HdKeyGenerator.getAddress(purposeAddress, masterAddress.getCoinType().getCoinType(network), true);
+    }
 
+    /**
+     * 
+     *
+     * @param extendedKey 
+     * @param purpose 
+     * @param coinType 
+     * @return 
+     */
+    private static HdAddress importRootAddress(byte[] extendedKey, Purpose purpose, CoinType coinType) {
+        ExtendedKey.checkLength(extendedKey);
+        int depth = extendedKey[4];
+        if ((depth != 2 && depth != 3) || (extendedKey[9] & 0x80) == 0) {
+            throw new CryptoException("Expected a hardened coin or account level extended private key");
+        }
+        long coin = coinType.getCoinType(ExtendedKey.getNetwork(extendedKey));
+        if (depth == 2 && ExtendedKey.getChildIndex(extendedKey) != coin) {
+            throw new CryptoException("Expected the extended private key of coin " + coin + "'");
+        }
+        DerivationPath path = DerivationPath.MASTER.child(purpose.bip, true).child(coin, true);
+        if (depth == 3) {
+            path = path.child(ExtendedKey.getChildIndex(extendedKey), true);
+        }
+        return ExtendedKey.getAddress(extendedKey, coinType, path);
     }
 
     /**
@@ -53,9 +211,7 @@ public abstract class AbstractWallet {
      * @return 
      */
     protected HdAddress getHdAddress(int account, Chain chain, Integer index) {
-        HdAddress accountAddress = HdKeyGenerator.getAddress(this.rootAddress, account, true);
-        HdAddress chainAddress = HdKeyGenerator.getAddress(accountAddress, chain.getChainCode(),
-                this.rootAddress.getCoinType().getAlwaysHardened());
+        HdAddress chainAddress = getChainAddress(account, chain);
 
         if (index == null)
             return chainAddress;
@@ -63,6 +219,130 @@ public abstract class AbstractWallet {
         return HdKeyGenerator.getAddress(chainAddress, index, this.rootAddress.getCoinType().getAlwaysHardened());
     }
 
+    /**
+     * Derives the node at any path below the root node. The wallet does not keep the master
+     * node, so paths outside m/purpose'/coin' (m/purpose'/coin'/account' for an account
+     * level wallet) cannot be reached: a BIP84 wallet rejects m/86'/0'/0'/0/0, as well as
+     * m/84'/1'/0'/0/0 of another coin. The parent of the node is cached, and it is derived
+     * from its closest cached ancestor, so consecutive leaves cost a single derivation each.
+     *
+     * @param path e.g. {@code DerivationPath.parse("m/84'/0'/0'/0/5")}
+     * @return 
+     */
+    protected HdAddress getHdAddress(DerivationPath path) {
+        HdAddress address = getBaseAddress(path);
+        if (address != null)
+            return address;
+
+        if (!path.startsWith(this.rootAddress.getDerivationPath()))
+            throw new CryptoException("Path " + path + " is not below " + this.rootAddress.getPath());
+
+        int last = path.getDepth() - 1;
+        return HdKeyGenerator.getAddress(getParentAddress(path.parent()), path.getIndex(last),
+                path.isHardened(last));
+    }
+
+    /**
+     * Returns the m/purpose'/coin'/account'/chain node, derived once and then served from
+     * the parent cache. The account node is cached on the way, so the second chain of an
+     * account costs a single derivation.
+     *
+     * @param account 
+     * @param chain 
+     * @return 
+     */
+    protected HdAddress getChainAddress(int account, Chain chain) {
+        return getParentAddress(getAccountPath(account).child(chain.getChainCode(),
+                this.rootAddress.getCoinType().getAlwaysHardened()));
+    }
+
+    /**
+     * 
+     *
+     * @param path 
+     * @return the cached node, derived from its closest cached ancestor on a miss
+     */
+    private HdAddress getParentAddress(DerivationPath path) {
+        HdAddress address = getBaseAddress(path);
+        if (address != null)
+            return address;
+
+        return this.parentAddresses.get(path, key -> {
+            HdAddress ancestor = null;
+            int depth = key.getDepth() - 1;
+            for (; depth >= 0; depth--) {
+                DerivationPath prefix = key.prefix(depth);
+                ancestor = getBaseAddress(prefix);
+                if (ancestor == null)
+                    ancestor = this.parentAddresses.peek(prefix);
+                if (ancestor != null)
+                    break;
+            }
+            if (ancestor == null)
+                throw new CryptoException("Path " + key + " is not below " + this.rootAddress.getPath());
+
+            // nodes between the ancestor and the key, such as the account node shared by
+            // both chains, are cached as well
+            HdAddress node = ancestor;
+            for (int step = depth; step < key.getDepth(); step++) {
+                node = HdKeyGenerator.getAddress(node, key.getIndex(step), key.isHardened(step));
+                if (step < key.getDepth() - 1)
+                    node = this.parentAddresses.put(key.prefix(step + 1), node);
+            }
+            return node;
+        });
+    }
+
+    /**
+     * 
+     *
+     * @param path 
+     * @return the root node when the path names it
+     */
+    private HdAddress getBaseAddress(DerivationPath path) {
+        if (path.equals(this.rootAddress.getDerivationPath()))
+            return this.rootAddress;
+
+        return null;
+    }
+
+    /**
+     * 
+     *
+     * @return the cache of parent nodes, exposing its hit/miss counters
+     */
+    public HdAddressCache<DerivationPath> getChainCache() {
+        return this.parentAddresses;
+    }
+
+    /**
+     * Derives the chain node once and then the leaves [fromIndex, fromIndex + count).
+     *
+     * @param account 
+     * @param chain 
+     * @param fromIndex 
+     * @param count 
+     * @return 
+     */
+    protected HdAddress[] getHdAddresses(int account, Chain chain, int fromIndex, int count) {
+        return HdKeyGenerator.getAddresses(getChainAddress(account, chain), fromIndex, count,
+                this.rootAddress.getCoinType().getAlwaysHardened());
+    }
+
+    /**
+     * 
+     *
+     * @param account 
+     * @param chain 
+     * @param fromIndex 
+     * @param count 
+     * @return 
+     */
+    protected Stream<HdAddress> streamHdAddresses(int account, Chain chain, int fromIndex, int count) {
+        return HdKeyGenerator.streamAddresses(getChainAddress(account, chain), fromIndex, count,
+                this.rootAddress.getCoinType().getAlwaysHardened());
+    }
+
     /**
      * 
      *
@@ -87,6 +367,94 @@ public abstract class AbstractWallet {
         return getHdAddress(account, chain, index).getPublicKey();
     }
 
+    /**
+     * 
+     *
+     * @param account 
+     * @return the m/purpose'/coin'/account' public key, the root of a {@link PublicWallet}
+     */
+    public HdPublicKey getAccountPublicKey(int account) {
+        return getAccountAddress(account).getPublicKey();
+    }
+
+    /**
+     * 
+     *
+     * @param account 
+     * @return the m/purpose'/coin'/account' private key, which {@link ExtendedKey#encode(HdKey)} turns into the xprv
+     *         accepted by {@link #AbstractWallet(String, Purpose, CoinType)}
+     */
+    public HdPrivateKey getAccountPrivateKey(int account) {
+        return getAccountAddress(account).getPrivateKey();
+    }
+
+    /**
+     * 
+     *
+     * @param path a path below m/purpose'/coin' of this wallet, other paths, such as
+     *            m/86'/0'/0' from a BIP84 wallet, are rejected
+     * @return 
+     * @see #getHdAddress(DerivationPath)
+     */
+    public HdPrivateKey getPrivateKey(DerivationPath path) {
+        return getHdAddress(path).getPrivateKey();
+    }
+
+    /**
+     * 
+     *
+     * @param path a path below m/purpose'/coin' of this wallet, other paths, such as
+     *            m/86'/0'/0' from a BIP84 wallet, are rejected
+     * @return 
+     * @see #getHdAddress(DerivationPath)
+     */
+    public HdPublicKey getPublicKey(DerivationPath path) {
+        return getHdAddress(path).getPublicKey();
+    }
+
+    /**
+     * 
+     *
+     * @param account 
+     * @return the m/purpose'/coin'/account' node
+     */
+    private HdAddress getAccountAddress(int account) {
+        return getHdAddress(getAccountPath(account));
+    }
+
+    /**
+     * 
+     *
+     * @param account 
+     * @return 
+     */
+    private DerivationPath getAccountPath(int account) {
+        if (this.account < 0)
+            return this.rootAddress.getDerivationPath().child(account, true);
+
+        if (account != this.account)
+            throw new CryptoException("This wallet only holds account " + this.account);
+
+        return this.rootAddress.getDerivationPath();
+    }
+
+    /**
+     * 
+     *
+     * @param account 
+     * @param chain 
+     * @param fromIndex 
+     * @param count 
+     * @return public keys of the leaves [fromIndex, fromIndex + count)
+     */
+    public HdPublicKey[] getPublicKeys(int account, Chain chain, int fromIndex, int count) {
+        HdAddress[] addresses = getHdAddresses(account, chain, fromIndex, count);
+        HdPublicKey[] publicKeys = new HdPublicKey[count];
+        for (int i = 0; i < count; i++)
+            publicKeys[i] = addresses[i].getPublicKey();
+        return publicKeys;
+    }
+
     /**
      * 
      *
@@ -109,6 +477,92 @@ public abstract class AbstractWallet {
      */
     public abstract String getAddress(int account, Chain chain, Integer index);
 
+    /**
+     * Encodes the leaves [fromIndex, fromIndex + count). The chain node is cached, so each
+     * address costs a single child derivation.
+     *
+     * @param account 
+     * @param chain 
+     * @param fromIndex 
+     * @param count 
+     * @return 
+     */
+    public String[] getAddresses(int account, Chain chain, int fromIndex, int count) {
+        HdAddress[] addresses = getHdAddresses(account, chain, fromIndex, count);
+        String[] encoded = new String[count];
+        for (int i = 0; i < count; i++)
+            encoded[i] = encode(addresses[i]);
+        return encoded;
+    }
+
+    /**
+     * Encodes a leaf that was already derived, e.g. by {@link HdKeyGenerator#getAddresses}.
+     * The leaf must sit at a m/purpose'/coin'/account'/chain/index path of this wallet and
+     * use its coin type; it is then encoded by {@link #encode(HdAddress)}.
+     *
+     * @param address a m/purpose'/coin'/account'/chain/index node of this wallet
+     * @return 
+     */
+    public String getAddress(HdAddress address) {
+        if (address.getCoinType() != this.rootAddress.getCoinType() || getLeafChain(address) == null)
+            throw new CryptoException("Not a leaf of this wallet: " + address.getPath());
+
+        return encode(address);
+    }
+
+    /**
+     * Encodes a leaf derived by this wallet. Wallets override this to encode the public key
+     * of the leaf directly; by default the leaf is encoded again by its path, through
+     * {@link #getAddress(int, Chain, Integer)}, which derives it a second time.
+     *
+     * @param leaf a m/purpose'/coin'/account'/chain/index node of this wallet
+     * @return 
+     */
+    protected String encode(HdAddress leaf) {
+        Chain chain = getLeafChain(leaf);
+        if (chain == null)
+            throw new CryptoException("Not a leaf of this wallet: " + leaf.getPath());
+
+        DerivationPath path = leaf.getDerivationPath();
+        int depth = path.getDepth();
+        int account = this.account < 0 ? path.getIndex(depth - 3) : this.account;
+        return getAddress(account, chain, path.getIndex(depth - 1));
+    }
+
+    /**
+     * 
+     *
+     * @param leaf 
+     * @return the chain of a m/purpose'/coin'/account'/chain/index node of this wallet, null
+     *         for any other node
+     */
+    private Chain getLeafChain(HdAddress leaf) {
+        DerivationPath path = leaf.getDerivationPath();
+        DerivationPath rootPath = this.rootAddress.getDerivationPath();
+        int depth = path.getDepth();
+        if (!path.startsWith(rootPath) || depth != rootPath.getDepth() + (this.account < 0 ? 3 : 2))
+            return null;
+
+        return Chain.getChainForChainCode(path.getIndex(depth - 2));
+    }
+
+    /**
+     * 
+     *
+     * @param account 
+     * @param chain 
+     * @param fromIndex 
+     * @param count 
+     * @return lazy, ordered stream of the leaves [fromIndex, fromIndex + count)
+     */
+    public Stream<String> streamAddresses(int account, Chain chain, int fromIndex, int count) {
+        if (fromIndex < 0 || count < 0 || (long) fromIndex + count > 0x80000000L) {
+            throw new IllegalArgumentException("Child index range must be within [0, 2^31)");
+        }
+        getChainAddress(account, chain);
+        return IntStream.range(fromIndex, fromIndex + count).mapToObj(index -> getAddress(account, chain, index));
+    }
+
     /**
      * 
      */
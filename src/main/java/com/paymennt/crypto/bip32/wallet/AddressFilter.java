@@ -0,0 +1,256 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip32.wallet;
+
+import java.nio.ByteBuffer;
+
+import com.paymennt.crypto.bip32.wallet.AbstractWallet.Chain;
+import com.paymennt.crypto.bip32.wallet.AddressIndex.KeyType;
+
+/**
+ * Bloom filter over the keys of derived leaves, to discard the outputs of a block or
+ * mempool scan that are definitely not ours before they reach an {@link AddressIndex}.
+ * <p>
+ * The keys are hashes (or ed25519 points) and already uniformly distributed, so their
+ * first two 64 bit words serve directly as the two hashes of Kirsch-Mitzenmacher double
+ * hashing, and a probe costs no digest at all. The filter only grows by additions, can
+ * be extended as new indices are derived and round trips through {@link #toByteArray()}.
+ * <p>
+ * Lookups may run concurrently with each other but not with additions.
+ *
+ * @author paymennt
+ */
+public class AddressFilter {
+
+    /** "HDBF" */
+    private static final int MAGIC = 0x48444246;
+
+    /**  */
+    private static final int VERSION = 1;
+
+    /**  */
+    private static final int HEADER_LENGTH = 24;
+
+    /**  */
+    private final KeyType keyType;
+
+    /**  */
+    private final long[] bits;
+
+    /**  */
+    private final long bitCount;
+
+    /**  */
+    private final int hashCount;
+
+    /**  */
+    private long size;
+
+    /**
+     *
+     *
+     * @param keyType
+     * @param expectedInsertions
+     * @param falsePositiveRate wanted rate of false positives once the expected keys are added, in (0, 1)
+     */
+    public AddressFilter(KeyType keyType, long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions < 1 || !(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("Expected insertions must be positive and the rate within (0, 1)");
+        }
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        if (m > (long) Integer.MAX_VALUE * 64) {
+            throw new IllegalArgumentException("Filter too large");
+        }
+        this.keyType = keyType;
+        this.bits = new long[(int) ((Math.max(m, 64) + 63) >>> 6)];
+        this.bitCount = bits.length * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+    }
+
+    /**
+     *
+     *
+     * @param keyType
+     * @param bits
+     * @param hashCount
+     * @param size
+     */
+    private AddressFilter(KeyType keyType, long[] bits, int hashCount, long size) {
+        this.keyType = keyType;
+        this.bits = bits;
+        this.bitCount = bits.length * 64L;
+        this.hashCount = hashCount;
+        this.size = size;
+    }
+
+    /**
+     * Derives the leaves [fromIndex, fromIndex + count) of a chain through the wallet's
+     * range derivation and adds their keys.
+     *
+     * @param wallet
+     * @param account
+     * @param chain
+     * @param fromIndex
+     * @param count
+     */
+    public void add(AbstractWallet wallet, int account, Chain chain, int fromIndex, int count) {
+        for (HdAddress address : wallet.getHdAddresses(account, chain, fromIndex, count)) {
+            put(keyType.key(address), 0);
+        }
+    }
+
+    /**
+     *
+     *
+     * @param key
+     * @param offset
+     */
+    public void put(byte[] key, int offset) {
+        long h1 = word(key, offset);
+        long h2 = word(key, offset + 8) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        size++;
+    }
+
+    /**
+     *
+     *
+     * @param key
+     * @param offset
+     * @return false when the key was definitely never added
+     */
+    public boolean mightContain(byte[] key, int offset) {
+        long h1 = word(key, offset);
+        long h2 = word(key, offset + 8) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     *
+     * @param key a {@link KeyType#getLength()} byte key
+     * @return false when the key was definitely never added
+     */
+    public boolean mightContain(byte[] key) {
+        return key.length == keyType.getLength() && mightContain(key, 0);
+    }
+
+    /**
+     * Probes the key of a P2WPKH or P2PKH output script, without copying it out.
+     *
+     * @param script
+     * @return false for other scripts and for keys that were definitely never added
+     */
+    public boolean mightContainScript(byte[] script) {
+        if (keyType != KeyType.HASH160) {
+            return false;
+        }
+        // OP_0 <20 bytes>
+        if (script.length == 22 && script[0] == 0x00 && script[1] == 0x14) {
+            return mightContain(script, 2);
+        }
+        // OP_DUP OP_HASH160 <20 bytes> OP_EQUALVERIFY OP_CHECKSIG
+        if (script.length == 25 && script[0] == 0x76 && script[1] == (byte) 0xa9 && script[2] == 0x14
+                && script[23] == (byte) 0x88 && script[24] == (byte) 0xac) {
+            return mightContain(script, 3);
+        }
+        return false;
+    }
+
+    /**
+     *
+     *
+     * @return number of keys added
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     *
+     *
+     * @return the false positive rate at the current number of keys
+     */
+    public double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-hashCount * (double) size / bitCount), hashCount);
+    }
+
+    /**
+     *
+     *
+     * @return magic | version | key type | hash count | key count | bit words
+     */
+    public byte[] toByteArray() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + bits.length * 8);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(keyType.ordinal()).putInt(hashCount).putLong(size);
+        buffer.asLongBuffer().put(bits);
+        return buffer.array();
+    }
+
+    /**
+     *
+     *
+     * @param serialized see {@link #toByteArray()}
+     * @return
+     */
+    public static AddressFilter fromByteArray(byte[] serialized) {
+        ByteBuffer buffer = ByteBuffer.wrap(serialized);
+        if (serialized.length < HEADER_LENGTH + 8 || (serialized.length - HEADER_LENGTH) % 8 != 0
+                || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IllegalArgumentException("Not an address filter");
+        }
+        int keyType = buffer.getInt();
+        int hashCount = buffer.getInt();
+        long size = buffer.getLong();
+        if (keyType < 0 || keyType >= KeyType.values().length || hashCount < 1 || size < 0) {
+            throw new IllegalArgumentException("Not an address filter");
+        }
+        long[] bits = new long[(serialized.length - HEADER_LENGTH) / 8];
+        buffer.asLongBuffer().get(bits);
+        return new AddressFilter(KeyType.values()[keyType], bits, hashCount, size);
+    }
+
+    /**
+     *
+     *
+     * @param key
+     * @param offset
+     * @return
+     */
+    private static long word(byte[] key, int offset) {
+        long word = 0;
+        for (int i = 0; i < 8; i++) {
+            word = (word << 8) | (key[offset + i] & 0xff);
+        }
+        return word;
+    }
+}
@@ -0,0 +1,392 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip32.wallet;
+
+import java.util.Arrays;
+
+import com.paymennt.crypto.bip32.crypto.Hash;
+import com.paymennt.crypto.bip32.exception.CryptoException;
+import com.paymennt.crypto.bip32.wallet.AbstractWallet.Chain;
+import com.paymennt.crypto.lib.Base58;
+import com.paymennt.crypto.lib.Bech32;
+
+/**
+ * Reverse index from a key hash (or ed25519 key) to the (account, chain, index) of the
+ * leaf that owns it, for matching incoming payments.
+ * <p>
+ * Keys live back to back in one {@code byte[]} and their packed coordinates in a
+ * parallel {@code long[]}, probed linearly from a hash of the key's leading bytes, which
+ * are already uniformly distributed. Nothing is boxed, and addresses are decoded
+ * straight into per-thread key buffers without building strings.
+ * <p>
+ * Addresses are only matched on the network the index was built for: the bech32 human
+ * readable part and the P2PKH version byte given at construction must match. BIP49
+ * P2SH-P2WPKH addresses are not supported, since they carry the hash of the redeem script
+ * rather than of the key; look those up by the key hash instead.
+ * <p>
+ * Lookups may run concurrently with each other but not with additions.
+ *
+ * @author paymennt
+ */
+public class AddressIndex {
+
+    /** returned by the lookups for unknown keys */
+    public static final long NOT_FOUND = -1L;
+
+    /**  */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** per-thread decoding buffers: witness program, Base58Check P2PKH payload, ed25519 key */
+    private static final ThreadLocal<byte[][]> SCRATCH = ThreadLocal
+            .withInitial(() -> new byte[][] { new byte[40], new byte[25], new byte[32] });
+
+    /**  */
+    private final KeyType keyType;
+
+    /**  */
+    private final int keyLength;
+
+    /** human readable part of segwit addresses, null when addresses cannot be looked up */
+    private final String hrp;
+
+    /** version byte of P2PKH addresses */
+    private final int p2pkhVersion;
+
+    /** capacity * keyLength key bytes */
+    private byte[] keys;
+
+    /** packed coordinates, {@link #NOT_FOUND} marks a free slot */
+    private long[] values;
+
+    /**  */
+    private int mask;
+
+    /**  */
+    private int size;
+
+    /**
+     *
+     *
+     * @param keyType
+     */
+    public AddressIndex(KeyType keyType) {
+        this(keyType, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Builds an index for key lookups, and for address lookups of {@link KeyType#ED25519}
+     * keys, which carry no network.
+     *
+     * @param keyType
+     * @param expectedSize number of keys the index holds before it first grows
+     */
+    public AddressIndex(KeyType keyType, int expectedSize) {
+        this(keyType, expectedSize, null, -1);
+    }
+
+    /**
+     * Builds an index of {@link KeyType#HASH160} keys that looks addresses of one network
+     * up.
+     *
+     * @param keyType
+     * @param expectedSize number of keys the index holds before it first grows
+     * @param hrp human readable part of the segwit addresses, e.g. "bc"
+     * @param p2pkhVersion version byte of the P2PKH addresses, e.g. 0x00
+     */
+    public AddressIndex(KeyType keyType, int expectedSize, String hrp, int p2pkhVersion) {
+        this.keyType = keyType;
+        this.keyLength = keyType.length;
+        this.hrp = hrp;
+        this.p2pkhVersion = p2pkhVersion;
+        allocate(Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1);
+    }
+
+    /**
+     * Derives the leaves [fromIndex, fromIndex + count) of a chain through the wallet's
+     * range derivation and indexes their keys.
+     *
+     * @param wallet
+     * @param account
+     * @param chain
+     * @param fromIndex
+     * @param count
+     */
+    public void add(AbstractWallet wallet, int account, Chain chain, int fromIndex, int count) {
+        HdAddress[] addresses = wallet.getHdAddresses(account, chain, fromIndex, count);
+        for (int i = 0; i < count; i++) {
+            put(keyType.key(addresses[i]), 0, account, chain, fromIndex + i);
+        }
+    }
+
+    /**
+     *
+     *
+     * @param key
+     * @param offset
+     * @param account
+     * @param chain
+     * @param index
+     */
+    public void put(byte[] key, int offset, int account, Chain chain, int index) {
+        if (account < 0 || index < 0) {
+            throw new IllegalArgumentException("Account and index must not be negative");
+        }
+        if ((size + 1) * 2 > values.length) {
+            rehash();
+        }
+        int slot = find(key, offset);
+        if (values[slot] == NOT_FOUND) {
+            System.arraycopy(key, offset, keys, slot * keyLength, keyLength);
+            size++;
+        }
+        values[slot] = pack(account, chain, index);
+    }
+
+    /**
+     *
+     *
+     * @param key
+     * @param offset
+     * @return the packed coordinates, or {@link #NOT_FOUND}
+     */
+    public long get(byte[] key, int offset) {
+        return values[find(key, offset)];
+    }
+
+    /**
+     *
+     *
+     * @param key a {@link KeyType#getLength()} byte key
+     * @return the packed coordinates, or {@link #NOT_FOUND}
+     */
+    public long get(byte[] key) {
+        if (key.length != keyLength) {
+            return NOT_FOUND;
+        }
+        return get(key, 0);
+    }
+
+    /**
+     * Looks an encoded address up: segwit v0 and Base58Check P2PKH addresses of the
+     * index's network for {@link KeyType#HASH160}, Base58 public keys for
+     * {@link KeyType#ED25519}.
+     *
+     * @param address
+     * @return the packed coordinates, or {@link #NOT_FOUND} for unknown or malformed
+     *         addresses and addresses of another network
+     */
+    public long getByAddress(CharSequence address) {
+        byte[][] scratch = SCRATCH.get();
+        if (keyType == KeyType.ED25519) {
+            return Base58.decode(address, scratch[2]) ? get(scratch[2], 0) : NOT_FOUND;
+        }
+        if (hrp == null) {
+            throw new CryptoException("The index was built without a network to look addresses up");
+        }
+
+        if (Bech32.decodeWitnessProgram(address, scratch[0]) == 20) {
+            return hasHrp(address) ? get(scratch[0], 0) : NOT_FOUND;
+        }
+        byte[] payload = scratch[1];
+        if (!Base58.decode(address, payload) || (payload[0] & 0xff) != p2pkhVersion) {
+            return NOT_FOUND;
+        }
+        byte[] checksum = Hash.sha256Twice(payload, 0, 21);
+        for (int i = 0; i < 4; i++) {
+            if (checksum[i] != payload[21 + i]) {
+                return NOT_FOUND;
+            }
+        }
+        return get(payload, 1);
+    }
+
+    /**
+     *
+     *
+     * @param address a valid segwit address
+     * @return true when its human readable part is the index's
+     */
+    private boolean hasHrp(CharSequence address) {
+        // the data part holds no '1', so a '1' right after the prefix is the separator
+        int length = hrp.length();
+        if (address.length() <= length || address.charAt(length) != '1') {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase(address.charAt(i)) != hrp.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public KeyType getKeyType() {
+        return keyType;
+    }
+
+    /**
+     *
+     *
+     * @param account
+     * @param chain
+     * @param index
+     * @return account (31 bits) | chain (1 bit) | index (32 bits)
+     */
+    public static long pack(int account, Chain chain, int index) {
+        return ((long) account << 33) | ((long) chain.getChainCode() << 32) | (index & 0xffffffffL);
+    }
+
+    /**
+     *
+     *
+     * @param packed
+     * @return
+     */
+    public static int getAccount(long packed) {
+        return (int) (packed >>> 33);
+    }
+
+    /**
+     *
+     *
+     * @param packed
+     * @return
+     */
+    public static Chain getChain(long packed) {
+        return Chain.getChainForChainCode((int) (packed >>> 32) & 1);
+    }
+
+    /**
+     *
+     *
+     * @param packed
+     * @return
+     */
+    public static int getIndex(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     *
+     *
+     * @param key
+     * @param offset
+     * @return the slot holding the key, or the free slot ending its probe sequence
+     */
+    private int find(byte[] key, int offset) {
+        long head = 0;
+        for (int i = 0; i < 8; i++) {
+            head = (head << 8) | (key[offset + i] & 0xff);
+        }
+        int slot = (int) (head ^ (head >>> 32)) & mask;
+        while (values[slot] != NOT_FOUND && !matches(slot, key, offset)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     *
+     *
+     * @param slot
+     * @param key
+     * @param offset
+     * @return
+     */
+    private boolean matches(int slot, byte[] key, int offset) {
+        int base = slot * keyLength;
+        for (int i = 0; i < keyLength; i++) {
+            if (keys[base + i] != key[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     *
+     * @param capacity
+     */
+    private void allocate(int capacity) {
+        keys = new byte[capacity * keyLength];
+        values = new long[capacity];
+        Arrays.fill(values, NOT_FOUND);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Doubles the table, keeping the load factor at or below one half.
+     */
+    private void rehash() {
+        byte[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(oldValues.length * 2);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != NOT_FOUND) {
+                int slot = find(oldKeys, i * keyLength);
+                System.arraycopy(oldKeys, i * keyLength, keys, slot * keyLength, keyLength);
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * What a key is derived from.
+     */
+    public enum KeyType {
+
+        /** hash160 of the serialized public key, the key of secp256k1 addresses */
+        HASH160(20),
+
+        /** the raw 32 byte ed25519 public key, the key of Solana style addresses */
+        ED25519(32);
+
+        /**  */
+        private final int length;
+
+        /**
+         *
+         *
+         * @param length
+         */
+        KeyType(int length) {
+            this.length = length;
+        }
+
+        /**
+         *
+         *
+         * @return
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         *
+         *
+         * @param address
+         * @return
+         */
+        byte[] key(HdAddress address) {
+            return this == ED25519 ? address.getPublicKey().getPublicKey() : address.identifier();
+        }
+    }
+}
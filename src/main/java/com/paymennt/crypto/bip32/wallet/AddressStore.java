@@ -0,0 +1,349 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip32.wallet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.paymennt.crypto.bip32.exception.CryptoException;
+import com.paymennt.crypto.bip32.wallet.AbstractWallet.Chain;
+
+/**
+ * Persistent, memory-mapped store of the derived leaves of one (wallet, account, chain).
+ * <p>
+ * The file starts with a {@value #HEADER_LENGTH} byte header naming the chain it belongs
+ * to (the identifier of the m/purpose'/coin'/account'/chain node, the account and the
+ * chain) and the number of stored leaves, followed by one {@value #RECORD_LENGTH} byte
+ * record per child index, in index order:
+ *
+ * <pre>
+ * index (4) | key data (33) | hash160 (20) | address length (1) | address (70, ASCII)
+ * </pre>
+ *
+ * A restarted service reads its leaves from the map and only derives indices past the
+ * stored count. Records are forced to the file before the count is bumped and forced
+ * in turn, so an interrupted append loses at most the records it had not counted yet,
+ * and a file counting more records than it holds is rejected.
+ *
+ * @author paymennt
+ */
+public class AddressStore implements Closeable {
+
+    /** "HDAS" */
+    private static final int MAGIC = 0x48444153;
+
+    /**  */
+    private static final int VERSION = 1;
+
+    /**  */
+    public static final int HEADER_LENGTH = 64;
+
+    /**  */
+    public static final int RECORD_LENGTH = 128;
+
+    /**  */
+    public static final int ADDRESS_WIDTH = 70;
+
+    /**  */
+    private static final int KEY_OFFSET = 4;
+
+    /**  */
+    private static final int HASH160_OFFSET = 37;
+
+    /**  */
+    private static final int ADDRESS_OFFSET = 57;
+
+    /**  */
+    private static final int COUNT_OFFSET = 20;
+
+    /**  */
+    private static final int IDENTIFIER_OFFSET = 24;
+
+    /** records mapped at a time, the map grows in steps of this size */
+    private static final int GROWTH = 4096;
+
+    /**  */
+    private final AbstractWallet wallet;
+
+    /**  */
+    private final int account;
+
+    /**  */
+    private final Chain chain;
+
+    /**  */
+    private final FileChannel channel;
+
+    /**  */
+    private MappedByteBuffer map;
+
+    /**  */
+    private int count;
+
+    /**
+     * Opens or creates the store of one chain, rejecting a file written for another chain.
+     *
+     * @param file
+     * @param wallet
+     * @param account
+     * @param chain
+     * @throws IOException
+     */
+    public AddressStore(Path file, AbstractWallet wallet, int account, Chain chain) throws IOException {
+        this.wallet = wallet;
+        this.account = account;
+        this.chain = chain;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        try {
+            byte[] identifier = wallet.getChainAddress(account, chain).identifier();
+            if (channel.size() == 0) {
+                remap(GROWTH);
+                map.putInt(0, MAGIC);
+                map.putInt(4, VERSION);
+                map.putInt(8, RECORD_LENGTH);
+                map.putInt(12, account);
+                map.putInt(16, chain.getChainCode());
+                map.putInt(COUNT_OFFSET, 0);
+                put(IDENTIFIER_OFFSET, identifier, 0, identifier.length);
+            } else {
+                long size = channel.size();
+                if (size < HEADER_LENGTH) {
+                    throw new CryptoException("Not an address store");
+                }
+                remap((int) ((size - HEADER_LENGTH) / RECORD_LENGTH));
+                if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION || map.getInt(8) != RECORD_LENGTH) {
+                    throw new CryptoException("Not an address store");
+                }
+                if (map.getInt(12) != account || map.getInt(16) != chain.getChainCode()
+                        || !Arrays.equals(get(IDENTIFIER_OFFSET, identifier.length), identifier)) {
+                    throw new CryptoException("The address store belongs to another wallet or chain");
+                }
+                int stored = map.getInt(COUNT_OFFSET);
+                if (stored < 0 || HEADER_LENGTH + (long) stored * RECORD_LENGTH > size) {
+                    throw new CryptoException("The address store counts more records than it holds");
+                }
+                this.count = stored;
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     *
+     *
+     * @return number of stored leaves, the leaves [0, size) are available without derivation
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Derives and appends the leaves [size, count) when they are not stored yet.
+     *
+     * @param count
+     */
+    public synchronized void ensure(int count) {
+        if (count <= this.count) {
+            return;
+        }
+        ensureCapacity(count);
+
+        // count the leaves chunk by chunk, so an interrupted append keeps its finished chunks;
+        // the records reach the file before the count that covers them
+        for (int from = this.count; from < count; from += GROWTH) {
+            int to = Math.min(from + GROWTH, count);
+            HdAddress[] addresses = wallet.getHdAddresses(account, chain, from, to - from);
+            for (int i = 0; i < addresses.length; i++) {
+                write(from + i, addresses[i]);
+            }
+            map.force();
+            map.putInt(COUNT_OFFSET, to);
+            map.force();
+            this.count = to;
+        }
+    }
+
+    /**
+     *
+     *
+     * @param index
+     * @return the serialized public key, 0x00 || key for ed25519
+     */
+    public synchronized byte[] getKeyData(int index) {
+        checkIndex(index);
+        ensure(index + 1);
+        return get(recordOffset(index) + KEY_OFFSET, 33);
+    }
+
+    /**
+     *
+     *
+     * @param index
+     * @return the key identifier, see {@link HdAddress#getIdentifier()}
+     */
+    public synchronized byte[] getHash160(int index) {
+        checkIndex(index);
+        ensure(index + 1);
+        return get(recordOffset(index) + HASH160_OFFSET, 20);
+    }
+
+    /**
+     *
+     *
+     * @param index
+     * @return
+     */
+    public synchronized String getAddress(int index) {
+        checkIndex(index);
+        ensure(index + 1);
+        int offset = recordOffset(index) + ADDRESS_OFFSET;
+        return new String(get(offset + 1, map.get(offset)), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     *
+     *
+     * @param fromIndex
+     * @param count
+     * @return the leaves [fromIndex, fromIndex + count), deriving only the ones not stored yet
+     */
+    public synchronized String[] getAddresses(int fromIndex, int count) {
+        if (fromIndex < 0 || count < 0 || (long) fromIndex + count > 0x80000000L) {
+            throw new IllegalArgumentException("Child index range must be within [0, 2^31)");
+        }
+        ensure(fromIndex + count);
+        String[] addresses = new String[count];
+        for (int i = 0; i < count; i++)
+            addresses[i] = getAddress(fromIndex + i);
+        return addresses;
+    }
+
+    /**
+     * Writes the mapped records back to the file.
+     */
+    public synchronized void force() {
+        map.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        map.force();
+        channel.close();
+    }
+
+    /**
+     *
+     *
+     * @param index
+     * @param address
+     */
+    private void write(int index, HdAddress address) {
+        byte[] encoded = wallet.encode(address).getBytes(StandardCharsets.US_ASCII);
+        if (encoded.length > ADDRESS_WIDTH) {
+            throw new CryptoException("Address longer than " + ADDRESS_WIDTH + " characters");
+        }
+
+        int offset = recordOffset(index);
+        byte[] keyData = address.getPublicKey().getKeyData();
+        map.putInt(offset, index);
+        put(offset + KEY_OFFSET, keyData, 0, keyData.length);
+        put(offset + HASH160_OFFSET, address.identifier(), 0, 20);
+        map.put(offset + ADDRESS_OFFSET, (byte) encoded.length);
+        put(offset + ADDRESS_OFFSET + 1, encoded, 0, encoded.length);
+    }
+
+    /**
+     *
+     *
+     * @param index
+     * @return
+     */
+    private static int recordOffset(int index) {
+        return HEADER_LENGTH + index * RECORD_LENGTH;
+    }
+
+    /**
+     *
+     *
+     * @param index
+     */
+    private static void checkIndex(int index) {
+        if (index < 0 || index == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Child index must be within [0, 2^31 - 1)");
+        }
+    }
+
+    /**
+     *
+     *
+     * @param records
+     */
+    private void ensureCapacity(int records) {
+        if (recordOffset(0) + (long) records * RECORD_LENGTH > map.capacity()) {
+            remap(Math.max(records, (map.capacity() - HEADER_LENGTH) / RECORD_LENGTH * 2));
+        }
+    }
+
+    /**
+     *
+     *
+     * @param records
+     */
+    private void remap(int records) {
+        long size = HEADER_LENGTH + (long) Math.max(records, GROWTH) * RECORD_LENGTH;
+        if (size > Integer.MAX_VALUE) {
+            throw new CryptoException("Address store full");
+        }
+        try {
+            if (map != null) {
+                map.force();
+            }
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     *
+     *
+     * @param offset
+     * @param src
+     * @param srcOffset
+     * @param length
+     */
+    private void put(int offset, byte[] src, int srcOffset, int length) {
+        ByteBuffer buffer = map.duplicate();
+        buffer.position(offset);
+        buffer.put(src, srcOffset, length);
+    }
+
+    /**
+     *
+     *
+     * @param offset
+     * @param length
+     * @return
+     */
+    private byte[] get(int offset, int length) {
+        byte[] out = new byte[length];
+        ByteBuffer buffer = map.duplicate();
+        buffer.position(offset);
+        buffer.get(out);
+        return out;
+    }
+}
@@ -0,0 +1,248 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip32.wallet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+
+import com.paymennt.crypto.bip32.wallet.AbstractWallet.Chain;
+
+/**
+ * Derives many (account, chain, index range) requests of one wallet across cores.
+ * <p>
+ * The shared chain nodes are resolved once on the calling thread, then the leaf
+ * derivations, which only depend on their parent node, are split into slices, each
+ * derived as one batched range of its parent, across a
+ * {@link ForkJoinPool} or any other {@link Executor}. Results are written into
+ * preallocated arrays, so their order never depends on scheduling.
+ *
+ * @author paymennt
+ */
+public class DerivationEngine {
+
+    /** leaves derived by a single task before it stops splitting */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**  */
+    private final AbstractWallet wallet;
+
+    /**  */
+    private final Executor executor;
+
+    /**  */
+    private final int batchSize;
+
+    /**
+     *
+     *
+     * @param wallet
+     */
+    public DerivationEngine(AbstractWallet wallet) {
+        this(wallet, ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     *
+     *
+     * @param wallet
+     * @param executor a {@link ForkJoinPool} gets recursive splitting, any other executor gets fixed batches
+     * @param batchSize
+     */
+    public DerivationEngine(AbstractWallet wallet, Executor executor, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.wallet = wallet;
+        this.executor = executor;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     *
+     *
+     * @param requests
+     * @return one array of nodes per request, in request order
+     */
+    public List<HdAddress[]> derive(List<Request> requests) {
+        return run(requests, HdAddress[]::new, address -> address);
+    }
+
+    /**
+     *
+     *
+     * @param requests
+     * @return one array of encoded addresses per request, in request order
+     */
+    public List<String[]> deriveAddresses(List<Request> requests) {
+        return run(requests, String[]::new, wallet::encode);
+    }
+
+    /**
+     *
+     *
+     * @param <T>
+     * @param requests
+     * @param arrayFactory
+     * @param leaf
+     * @return
+     */
+    private <T> List<T[]> run(List<Request> requests, IntFunction<T[]> arrayFactory, Leaf<T> leaf) {
+        Map<Long, HdAddress> parents = new HashMap<>();
+        List<T[]> results = new ArrayList<>(requests.size());
+        List<Slice<T>> slices = new ArrayList<>(requests.size());
+
+        for (Request request : requests) {
+            HdAddress parent = parents.computeIfAbsent(((long) request.account << 32) | request.chain.getChainCode(),
+                    key -> wallet.getChainAddress(request.account, request.chain));
+            T[] result = arrayFactory.apply(request.count);
+            results.add(result);
+            slices.add(new Slice<>(request, parent, result, leaf, 0, request.count));
+        }
+
+        if (executor instanceof ForkJoinPool) {
+            ForkJoinPool pool = (ForkJoinPool) executor;
+            pool.invoke(new RecursiveAction() {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(slices);
+                }
+            });
+        } else {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (Slice<T> slice : slices) {
+                for (int from = 0; from < slice.to; from += batchSize) {
+                    Slice<T> batch = new Slice<>(slice.request, slice.parent, slice.result, leaf, from,
+                            Math.min(from + batchSize, slice.to));
+                    futures.add(CompletableFuture.runAsync(batch::deriveAll, executor));
+                }
+            }
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     *
+     */
+    @FunctionalInterface
+    private interface Leaf<T> {
+
+        T derive(HdAddress address);
+    }
+
+    /**
+     * A sub range of one request, split in halves until it is no larger than the batch size.
+     */
+    private class Slice<T> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Request request;
+        private final HdAddress parent;
+        private final T[] result;
+        private final Leaf<T> leaf;
+        private final int from;
+        private final int to;
+
+        Slice(Request request, HdAddress parent, T[] result, Leaf<T> leaf, int from, int to) {
+            this.request = request;
+            this.parent = parent;
+            this.result = result;
+            this.leaf = leaf;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= batchSize) {
+                deriveAll();
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Slice<>(request, parent, result, leaf, from, middle),
+                    new Slice<>(request, parent, result, leaf, middle, to));
+        }
+
+        void deriveAll() {
+            HdAddress[] addresses = HdKeyGenerator.getAddresses(parent, (long) request.fromIndex + from, to - from,
+                    parent.getCoinType().getAlwaysHardened());
+            for (int i = from; i < to; i++) {
+                result[i] = leaf.derive(addresses[i - from]);
+            }
+        }
+    }
+
+    /**
+     * A contiguous range of leaves [fromIndex, fromIndex + count) under m/purpose'/coin'/account'/chain.
+     */
+    public static class Request {
+
+        /**  */
+        private final int account;
+
+        /**  */
+        private final Chain chain;
+
+        /**  */
+        private final int fromIndex;
+
+        /**  */
+        private final int count;
+
+        /**
+         *
+         *
+         * @param account
+         * @param chain
+         * @param fromIndex
+         * @param count
+         */
+        public Request(int account, Chain chain, int fromIndex, int count) {
+            if (fromIndex < 0 || count < 0 || (long) fromIndex + count > 0x80000000L) {
+                throw new IllegalArgumentException("Child index range must be within [0, 2^31)");
+            }
+            this.account = account;
+            this.chain = chain;
+            this.fromIndex = fromIndex;
+            this.count = count;
+        }
+
+        public int getAccount() {
+            return account;
+        }
+
+        public Chain getChain() {
+            return chain;
+        }
+
+        public int getFromIndex() {
+            return fromIndex;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
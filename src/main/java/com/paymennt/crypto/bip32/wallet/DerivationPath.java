@@ -0,0 +1,224 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip32.wallet;
+
+import java.util.Arrays;
+
+/**
+ * Immutable BIP32 derivation path, the child numbers below the master node with the
+ * hardened bit ({@value #HARDENED}) set on hardened steps.
+ * <p>
+ * The string form ("m/84'/0'/0'/0/5") is only rendered when asked for, and then kept,
+ * so deriving a path costs one small {@code int[]} per step instead of a string.
+ *
+ * @author paymennt
+ */
+public final class DerivationPath {
+
+    /**  */
+    public static final int HARDENED = 0x80000000;
+
+    /** the master node */
+    public static final DerivationPath MASTER = new DerivationPath(new int[0]);
+
+    /**  */
+    private final int[] childNumbers;
+
+    /**  */
+    private volatile String string;
+
+    /**  */
+    private int hash;
+
+    /**
+     *
+     *
+     * @param childNumbers owned by the new path
+     */
+    private DerivationPath(int[] childNumbers) {
+        this.childNumbers = childNumbers;
+    }
+
+    /**
+     *
+     *
+     * @param childNumbers child numbers, with {@link #HARDENED} set on hardened steps
+     * @return
+     */
+    public static DerivationPath of(int... childNumbers) {
+        return childNumbers.length == 0 ? MASTER : new DerivationPath(childNumbers.clone());
+    }
+
+    /**
+     * Parses "m/84'/0'/0'/0/5", hardened steps marked with ' or h (or H).
+     *
+     * @param path
+     * @return
+     */
+    public static DerivationPath parse(String path) {
+        String[] parts = path.trim().split("/");
+        if (!parts[0].equals(HdKeyGenerator.MASTER_PATH)) {
+            throw new IllegalArgumentException("Path must start with " + HdKeyGenerator.MASTER_PATH + ": " + path);
+        }
+        int[] childNumbers = new int[parts.length - 1];
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i];
+            boolean hardened = part.endsWith("'") || part.endsWith("h") || part.endsWith("H");
+            if (hardened) {
+                part = part.substring(0, part.length() - 1);
+            }
+            long index;
+            try {
+                index = Long.parseLong(part);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid path step '" + parts[i] + "': " + path);
+            }
+            if (index < 0 || index >= 0x80000000L || part.startsWith("+")) {
+                throw new IllegalArgumentException("Path steps must be within [0, 2^31): " + path);
+            }
+            childNumbers[i - 1] = (int) index | (hardened ? HARDENED : 0);
+        }
+        return childNumbers.length == 0 ? MASTER : new DerivationPath(childNumbers);
+    }
+
+    /**
+     *
+     *
+     * @param index
+     * @param hardened
+     * @return this path extended by one step
+     */
+    public DerivationPath child(long index, boolean hardened) {
+        if (index < 0 || index >= 0x80000000L) {
+            throw new IllegalArgumentException("Child index must be within [0, 2^31)");
+        }
+        int[] child = Arrays.copyOf(childNumbers, childNumbers.length + 1);
+        child[childNumbers.length] = (int) index | (hardened ? HARDENED : 0);
+        return new DerivationPath(child);
+    }
+
+    /**
+     *
+     *
+     * @return this path without its last step
+     */
+    public DerivationPath parent() {
+        if (childNumbers.length == 0) {
+            throw new IllegalStateException("The master node has no parent");
+        }
+        return prefix(childNumbers.length - 1);
+    }
+
+    /**
+     *
+     *
+     * @param depth
+     * @return the first depth steps of this path
+     */
+    public DerivationPath prefix(int depth) {
+        if (depth == childNumbers.length) {
+            return this;
+        }
+        return depth == 0 ? MASTER : new DerivationPath(Arrays.copyOf(childNumbers, depth));
+    }
+
+    /**
+     *
+     *
+     * @param prefix
+     * @return true when this path is the prefix or one of its descendants
+     */
+    public boolean startsWith(DerivationPath prefix) {
+        if (prefix.childNumbers.length > childNumbers.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.childNumbers.length; i++) {
+            if (prefix.childNumbers[i] != childNumbers[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     *
+     * @return number of steps, the depth of the node
+     */
+    public int getDepth() {
+        return childNumbers.length;
+    }
+
+    /**
+     *
+     *
+     * @param step
+     * @return the child number of a step, hardened bit included
+     */
+    public int getChildNumber(int step) {
+        return childNumbers[step];
+    }
+
+    /**
+     *
+     *
+     * @param step
+     * @return the child index of a step, without the hardened bit
+     */
+    public int getIndex(int step) {
+        return childNumbers[step] & ~HARDENED;
+    }
+
+    /**
+     *
+     *
+     * @param step
+     * @return
+     */
+    public boolean isHardened(int step) {
+        return (childNumbers[step] & HARDENED) != 0;
+    }
+
+    /**
+     *
+     *
+     * @return a copy of the child numbers
+     */
+    public int[] toArray() {
+        return childNumbers.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || o instanceof DerivationPath && Arrays.equals(childNumbers, ((DerivationPath) o).childNumbers);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = Arrays.hashCode(childNumbers);
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        String s = string;
+        if (s == null) {
+            StringBuilder builder = new StringBuilder(4 + childNumbers.length * 6).append(HdKeyGenerator.MASTER_PATH);
+            for (int i = 0; i < childNumbers.length; i++) {
+                builder.append('/').append(getIndex(i));
+                if (isHardened(i)) {
+                    builder.append('\'');
+                }
+            }
+            s = builder.toString();
+            string = s;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,140 @@
+/************************************************************************ 
+ * Copyright PointCheckout, Ltd.
+ * 
+ */
+package com.paymennt.crypto.bip32.wallet;
+
+import java.util.Arrays;
+
+import com.paymennt.crypto.CoinType;
+import com.paymennt.crypto.bip32.Network;
+import com.paymennt.crypto.bip32.crypto.Ed25519;
+import com.paymennt.crypto.bip32.crypto.HdUtil;
+import com.paymennt.crypto.bip32.wallet.key.HdPrivateKey;
+import com.paymennt.crypto.bip32.wallet.key.HdPublicKey;
+
+/**
+ * SLIP-10 derivation over ed25519. Only hardened children exist and IL is used as the
+ * child key as is, so a node costs one HMAC-SHA512, plus one ed25519 public key when its
+ * public half is read or when it derives children, which store its fingerprint.
+ * <p>
+ * Key data is serialized the SLIP-10 way, 0x00 followed by the 32 byte key, for both
+ * the private and the public half. The IL buffers are zeroed once copied into the key.
+ * 
+ * @author paymennt
+ */
+class Ed25519KeyDerivation extends KeyDerivation {
+
+    /**
+     * 
+     *
+     * @param IL 
+     * @param IR 
+     * @param network 
+     * @param coinType 
+     * @param path 
+     * @return 
+     */
+    @Override
+    HdAddress getMasterAddress(byte[] IL, byte[] IR, Network network, CoinType coinType, DerivationPath path) {
+        byte[] fingerprint = new byte[4];
+        return newAddress(network.getPrivateKeyVersion(), network.getPublicKeyVersion(), 0, fingerprint,
+                new byte[4], IR, IL, null, coinType, path);
+    }
+
+    /**
+     * 
+     *
+     * @param network 
+     * @param depth 
+     * @param fingerprint 
+     * @param childNumber 
+     * @param chainCode 
+     * @param secretKey 
+     * @param coinType 
+     * @param path 
+     * @return 
+     */
+    @Override
+    HdAddress getImportedAddress(Network network, int depth, byte[] fingerprint, byte[] childNumber,
+            byte[] chainCode, byte[] secretKey, CoinType coinType, DerivationPath path) {
+        return newAddress(network.getPrivateKeyVersion(), network.getPublicKeyVersion(), depth, fingerprint,
+                childNumber, chainCode, secretKey, null, coinType, path);
+    }
+
+    /**
+     * 
+     *
+     * @param parent 
+     * @param child 
+     * @param isHardened 
+     * @param path 
+     * @return 
+     */
+    @Override
+    HdAddress getAddress(HdAddress parent, long child, boolean isHardened, DerivationPath path) {
+        byte[] I = hardenedHmac(parent, child);
+        byte[] IL = left(I);
+        try {
+            return newAddress(parent.privateKey().getVersion(), parent.getPublicVersion(),
+                    parent.privateKey().getDepth() + 1, fingerprintOf(parent), HdUtil.ser32(child), right(I),
+                    IL, null, parent.getCoinType(), path);
+        } finally {
+            Arrays.fill(I, (byte) 0);
+            Arrays.fill(IL, (byte) 0);
+        }
+    }
+
+    /**
+     * 
+     *
+     * @param privateKey 
+     * @param publicVersion 
+     * @return 
+     */
+    @Override
+    HdPublicKey getPublicKey(HdPrivateKey privateKey, byte[] publicVersion) {
+        byte[] secretKey = privateKey.getPrivateKey();
+        byte[] A;
+        try {
+            A = Ed25519.publicKey(secretKey);
+        } finally {
+            Arrays.fill(secretKey, (byte) 0);
+        }
+        return newPublicKey(privateKey, publicVersion, HdUtil.append(new byte[] { 0 }, A), A, null, 0);
+    }
+
+    /**
+     * 
+     *
+     * @param privateVersion 
+     * @param publicVersion 
+     * @param depth 
+     * @param fingerprint 
+     * @param childNumber 
+     * @param chainCode 
+     * @param secretKey 
+     * @param A public key of secretKey, null to compute it on first use
+     * @param coinType 
+     * @param path 
+     * @return 
+     */
+    private static HdAddress newAddress(byte[] privateVersion, byte[] publicVersion, int depth,
+            byte[] fingerprint, byte[] childNumber, byte[] chainCode, byte[] secretKey, byte[] A,
+            CoinType coinType, DerivationPath path) {
+        byte[] keyData = HdUtil.append(new byte[] { 0 }, secretKey);
+        HdPrivateKey privateKey;
+        try {
+            privateKey = HdPrivateKey.builder().version(privateVersion).depth(depth).fingerprint(fingerprint)
+                    .childNumber(childNumber).chainCode(chainCode).keyData(keyData).privateKey(secretKey).build();
+        } finally {
+            Arrays.fill(keyData, (byte) 0);
+        }
+
+        if (A == null)
+            return new HdAddress(privateKey, publicVersion, coinType, path);
+
+        return new HdAddress(privateKey,
+                newPublicKey(privateKey, publicVersion, HdUtil.append(new byte[] { 0 }, A), A, null, 0), coinType, path);
+    }
+}
@@ -0,0 +1,177 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip32.wallet;
+
+import java.util.Arrays;
+
+import com.paymennt.crypto.CoinType;
+import com.paymennt.crypto.bip32.Network;
+import com.paymennt.crypto.bip32.crypto.Secp256k1;
+import com.paymennt.crypto.bip32.exception.CryptoException;
+import com.paymennt.crypto.bip32.wallet.key.Curve;
+import com.paymennt.crypto.bip32.wallet.key.HdKey;
+import com.paymennt.crypto.bip32.wallet.key.HdPublicKey;
+import com.paymennt.crypto.lib.Base58;
+
+/**
+ * Reads and writes BIP32 extended keys, the 78 byte structure behind xprv / xpub strings.
+ * <p>
+ * The network and the key kind come from the version bytes. A decoded private key is
+ * rebuilt into a full {@link HdAddress}, so wallets can start from a stored account key
+ * without the seed stretch and the hardened derivations above it.
+ *
+ * @author paymennt
+ */
+public class ExtendedKey {
+
+    /**
+     *
+     */
+    private ExtendedKey() {
+    }
+
+    /**
+     *
+     *
+     * @param key Base58Check xprv / xpub string
+     * @return the 78 byte serialization
+     */
+    public static byte[] decode(String key) {
+        byte[] decoded;
+        try {
+            decoded = Base58.decodeChecked(key);
+        } catch (IllegalArgumentException e) {
+            throw new CryptoException("Invalid extended key: " + e.getMessage());
+        }
+        checkLength(decoded);
+        return decoded;
+    }
+
+    /**
+     *
+     *
+     * @param key
+     * @return the Base58Check xprv / xpub string
+     */
+    public static String encode(HdKey key) {
+        return Base58.encodeWithChecksum(key.serialize());
+    }
+
+    /**
+     *
+     *
+     * @param key 78 byte serialization
+     * @return
+     */
+    public static boolean isPrivate(byte[] key) {
+        checkLength(key);
+        for (Network network : Network.values()) {
+            if (hasVersion(key, network.getPrivateKeyVersion())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     *
+     *
+     * @param key 78 byte serialization
+     * @return the network of the private or public version bytes
+     */
+    public static Network getNetwork(byte[] key) {
+        checkLength(key);
+        for (Network network : Network.values()) {
+            if (hasVersion(key, network.getPrivateKeyVersion()) || hasVersion(key, network.getPublicKeyVersion())) {
+                return network;
+            }
+        }
+        throw new CryptoException("Unknown extended key version");
+    }
+
+    /**
+     *
+     *
+     * @param key 78 byte serialization of a private key
+     * @param coinType
+     * @param path the derivation path of the key, kept as {@link HdAddress#getDerivationPath()}, may be null
+     * @return
+     */
+    public static HdAddress getAddress(byte[] key, CoinType coinType, DerivationPath path) {
+        if (!isPrivate(key)) {
+            throw new CryptoException("Not an extended private key");
+        }
+        if (key[45] != 0) {
+            throw new CryptoException("The private key is invalid");
+        }
+        return KeyDerivation.of(coinType.getCurve()).getImportedAddress(getNetwork(key), key[4] & 0xff,
+                Arrays.copyOfRange(key, 5, 9), Arrays.copyOfRange(key, 9, 13), Arrays.copyOfRange(key, 13, 45),
+                Arrays.copyOfRange(key, 46, 78), coinType, path);
+    }
+
+    /**
+     *
+     *
+     * @param key 78 byte serialization of a public key, or of a private key whose public half is wanted
+     * @param coinType
+     * @return
+     */
+    public static HdPublicKey getPublicKey(byte[] key, CoinType coinType) {
+        if (isPrivate(key)) {
+            return getAddress(key, coinType, null).getPublicKey();
+        }
+
+        byte[] keyData = Arrays.copyOfRange(key, 45, 78);
+        if (coinType.getCurve() == Curve.ED25519) {
+            if (keyData[0] != 0) {
+                throw new CryptoException("The public key is invalid");
+            }
+        } else {
+            try {
+                Secp256k1.deserP(keyData);
+            } catch (IllegalArgumentException e) {
+                throw new CryptoException("The public key is invalid");
+            }
+        }
+
+        return HdPublicKey.builder().version(getNetwork(key).getPublicKeyVersion()).depth(key[4] & 0xff)
+                .fingerprint(Arrays.copyOfRange(key, 5, 9)).childNumber(Arrays.copyOfRange(key, 9, 13))
+                .chainCode(Arrays.copyOfRange(key, 13, 45)).keyData(keyData)
+                .publicKey(coinType.getCurve() == Curve.ED25519 ? Arrays.copyOfRange(keyData, 1, 33) : keyData)
+                .build();
+    }
+
+    /**
+     *
+     *
+     * @param key
+     * @return the child index of the key, without the hardened bit
+     */
+    static int getChildIndex(byte[] key) {
+        return ((key[9] & 0x7f) << 24) | ((key[10] & 0xff) << 16) | ((key[11] & 0xff) << 8) | (key[12] & 0xff);
+    }
+
+    /**
+     *
+     *
+     * @param key
+     * @param version
+     * @return
+     */
+    private static boolean hasVersion(byte[] key, byte[] version) {
+        return key[0] == version[0] && key[1] == version[1] && key[2] == version[2] && key[3] == version[3];
+    }
+
+    /**
+     *
+     *
+     * @param key
+     */
+    static void checkLength(byte[] key) {
+        if (key.length != HdKey.SERIALIZED_LENGTH) {
+            throw new CryptoException("Extended keys are " + HdKey.SERIALIZED_LENGTH + " bytes");
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip32.wallet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+
+import com.paymennt.crypto.bip32.wallet.AbstractWallet.Chain;
+
+/**
+ * Recovers the used part of a wallet: each chain is scanned until {@code gapLimit}
+ * consecutive addresses after the last used one are unused (BIP44 gap limit).
+ * <p>
+ * Every (account, chain) is an independent pipeline on the executor. While the usage of
+ * one batch is being checked, the next batch is already being derived, and it is
+ * cancelled if that check closes the gap, so a chain stops on its own as soon as its gap
+ * is reached. The pipelines never block a thread waiting for one another, so any
+ * executor, including a small fixed pool, can run them.
+ *
+ * @author paymennt
+ */
+public class GapLimitScanner {
+
+    /** BIP44 gap limit */
+    public static final int DEFAULT_GAP_LIMIT = 20;
+
+    /**  */
+    private final AbstractWallet wallet;
+
+    /**  */
+    private final UsageOracle oracle;
+
+    /**  */
+    private final int gapLimit;
+
+    /**  */
+    private final int batchSize;
+
+    /**  */
+    private final Executor executor;
+
+    /**
+     *
+     *
+     * @param wallet
+     * @param oracle
+     */
+    public GapLimitScanner(AbstractWallet wallet, UsageOracle oracle) {
+        this(wallet, oracle, DEFAULT_GAP_LIMIT, DEFAULT_GAP_LIMIT, ForkJoinPool.commonPool());
+    }
+
+    /**
+     *
+     *
+     * @param wallet
+     * @param oracle
+     * @param gapLimit consecutive unused addresses that end a chain
+     * @param batchSize addresses derived and checked at a time
+     * @param executor
+     */
+    public GapLimitScanner(AbstractWallet wallet, UsageOracle oracle, int gapLimit, int batchSize,
+            Executor executor) {
+        if (gapLimit < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Gap limit and batch size must be positive");
+        }
+        this.wallet = wallet;
+        this.oracle = oracle;
+        this.gapLimit = gapLimit;
+        this.batchSize = batchSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Scans both chains of the given accounts, all in parallel.
+     *
+     * @param accounts
+     * @return the external and change results of each account, in account order
+     */
+    public List<Result> scan(int... accounts) {
+        List<CompletableFuture<Result>> futures = new ArrayList<>(accounts.length * 2);
+        for (int account : accounts) {
+            for (Chain chain : Chain.values()) {
+                futures.add(new ChainScan(account, chain).start());
+            }
+        }
+
+        List<Result> results = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<Result> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * BIP44 account discovery: accounts are scanned in order, {@code parallelism} at a
+     * time, until one without any used external address.
+     *
+     * @param parallelism accounts scanned together
+     * @return the results of the used accounts, in account order
+     */
+    public List<Result> discover(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        List<Result> results = new ArrayList<>();
+        for (int first = 0;; first += parallelism) {
+            int[] accounts = new int[parallelism];
+            for (int i = 0; i < parallelism; i++)
+                accounts[i] = first + i;
+
+            List<Result> wave = scan(accounts);
+            for (int i = 0; i < wave.size(); i += 2) {
+                if (!wave.get(i).isUsed()) {
+                    return results;
+                }
+                results.add(wave.get(i));
+                results.add(wave.get(i + 1));
+            }
+        }
+    }
+
+    /**
+     * The derivation and usage checks of one chain.
+     */
+    private class ChainScan {
+
+        private final int account;
+        private final Chain chain;
+        private int fromIndex;
+        private int lastUsedIndex = -1;
+
+        ChainScan(int account, Chain chain) {
+            this.account = account;
+            this.chain = chain;
+        }
+
+        CompletableFuture<Result> start() {
+            return step(derive(0));
+        }
+
+        CompletableFuture<String[]> derive(int from) {
+            int count = (int) Math.min(batchSize, 0x80000000L - from);
+            return CompletableFuture.supplyAsync(() -> wallet.getAddresses(account, chain, from, count), executor);
+        }
+
+        CompletableFuture<Result> step(CompletableFuture<String[]> batch) {
+            return batch.thenComposeAsync(addresses -> {
+                long end = (long) fromIndex + addresses.length;
+
+                // derive ahead while the oracle works on this batch: the next batch is in
+                // the gap window unless the oracle finds this one unused up to the gap,
+                // and it is cancelled, before it starts if it is still queued, when it does
+                boolean more = end < 0x80000000L;
+                CompletableFuture<String[]> next = more ? derive((int) end) : null;
+                boolean[] used = oracle.isUsed(account, chain, fromIndex, addresses);
+                for (int i = addresses.length - 1; i >= 0; i--) {
+                    if (used[i]) {
+                        lastUsedIndex = Math.max(lastUsedIndex, fromIndex + i);
+                        break;
+                    }
+                }
+
+                if (!more || end - 1 - lastUsedIndex >= gapLimit) {
+                    if (next != null) {
+                        next.cancel(false);
+                    }
+                    return CompletableFuture.completedFuture(new Result(account, chain, lastUsedIndex, (int) end));
+                }
+                fromIndex = (int) end;
+                return step(next);
+            }, executor);
+        }
+    }
+
+    /**
+     * Tells which addresses have been used, e.g. through a node or an indexer.
+     */
+    @FunctionalInterface
+    public interface UsageOracle {
+
+        /**
+         *
+         *
+         * @param account
+         * @param chain
+         * @param fromIndex child index of the first address
+         * @param addresses consecutive addresses of the chain
+         * @return one flag per address, true when it was used
+         */
+        boolean[] isUsed(int account, Chain chain, int fromIndex, String[] addresses);
+
+        /**
+         *
+         *
+         * @param used
+         * @return an oracle checking one address at a time
+         */
+        static UsageOracle of(Predicate<String> used) {
+            return (account, chain, fromIndex, addresses) -> {
+                boolean[] flags = new boolean[addresses.length];
+                for (int i = 0; i < addresses.length; i++)
+                    flags[i] = used.test(addresses[i]);
+                return flags;
+            };
+        }
+    }
+
+    /**
+     * The outcome of scanning one chain.
+     */
+    public static class Result {
+
+        /**  */
+        private final int account;
+
+        /**  */
+        private final Chain chain;
+
+        /**  */
+        private final int lastUsedIndex;
+
+        /**  */
+        private final int scannedCount;
+
+        /**
+         *
+         *
+         * @param account
+         * @param chain
+         * @param lastUsedIndex
+         * @param scannedCount
+         */
+        Result(int account, Chain chain, int lastUsedIndex, int scannedCount) {
+            this.account = account;
+            this.chain = chain;
+            this.lastUsedIndex = lastUsedIndex;
+            this.scannedCount = scannedCount;
+        }
+
+        public int getAccount() {
+            return account;
+        }
+
+        public Chain getChain() {
+            return chain;
+        }
+
+        /**
+         *
+         *
+         * @return the highest used child index, -1 when the chain is unused
+         */
+        public int getLastUsedIndex() {
+            return lastUsedIndex;
+        }
+
+        /**
+         *
+         *
+         * @return the addresses [0, scannedCount) were checked
+         */
+        public int getScannedCount() {
+            return scannedCount;
+        }
+
+        public boolean isUsed() {
+            return lastUsedIndex >= 0;
+        }
+    }
+}
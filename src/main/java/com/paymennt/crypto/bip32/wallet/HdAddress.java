@@ -6,7 +6,13 @@
  */
 package com.paymennt.crypto.bip32.wallet;
 
+import java.util.Arrays;
+
 import com.paymennt.crypto.CoinType;
+import com.paymennt.crypto.bip32.crypto.ChainCodeHmac;
+import com.paymennt.crypto.bip32.crypto.Hash;
+import com.paymennt.crypto.bip32.exception.CryptoException;
+import com.paymennt.crypto.bip32.wallet.key.Curve;
 import com.paymennt.crypto.bip32.wallet.key.HdPrivateKey;
 import com.paymennt.crypto.bip32.wallet.key.HdPublicKey;
 
@@ -16,23 +22,109 @@ import com.paymennt.crypto.bip32.wallet.key.HdPublicKey;
 public class HdAddress {
 
     private final HdPrivateKey privateKey;
-    private final HdPublicKey publicKey;
     private final CoinType coinType;
-    private final String path;
+    private final DerivationPath path;
+
+    /** computed from the private key on first use, unless given */
+    private volatile HdPublicKey publicKey;
+
+    /** version of the public key while it is not computed */
+    private final byte[] publicVersion;
+
+    /** hash160 of the public key, computed on first use */
+    private volatile byte[] identifier;
+
+    /** HMAC keyed with the chain code, computed on first use */
+    private volatile ChainCodeHmac chainHmac;
 
     public HdAddress(HdPrivateKey privateKey, HdPublicKey publicKey, CoinType coinType, String path) {
+        this(privateKey, publicKey, coinType, path == null ? null : DerivationPath.parse(path));
+    }
+
+    public HdAddress(HdPrivateKey privateKey, HdPublicKey publicKey, CoinType coinType, DerivationPath path) {
         this.privateKey = privateKey;
         this.publicKey = publicKey;
+        this.publicVersion = publicKey.getVersion();
         this.coinType = coinType;
         this.path = path;
     }
 
+    /**
+     * A node whose public key is only computed when it is read, or when a non-hardened
+     * child needs it. Nodes only used for hardened derivation never pay the point
+     * multiplication.
+     *
+     * @param privateKey
+     * @param publicVersion
+     * @param coinType
+     * @param path
+     */
+    HdAddress(HdPrivateKey privateKey, byte[] publicVersion, CoinType coinType, DerivationPath path) {
+        this.privateKey = privateKey;
+        this.publicVersion = publicVersion;
+        this.coinType = coinType;
+        this.path = path;
+    }
+
+    /**
+     * @return a copy of the private key, destroying it leaves this node intact
+     */
     public HdPrivateKey getPrivateKey() {
+        return privateKey.copy();
+    }
+
+    /**
+     * The private key of this node itself, for derivation.
+     *
+     * @return
+     * @throws CryptoException when the key was destroyed
+     */
+    HdPrivateKey privateKey() {
+        if (privateKey.isDestroyed()) {
+            throw new CryptoException("The private key of " + getPath() + " was destroyed");
+        }
         return privateKey;
     }
 
+    /**
+     * Zeroes the private key of this node and the chain code HMAC keyed from it, for nodes
+     * owned by a cache.
+     */
+    void destroy() {
+        privateKey.destroy();
+        ChainCodeHmac hmac = chainHmac;
+        chainHmac = null;
+        if (hmac != null) {
+            hmac.clear();
+        }
+    }
+
     public HdPublicKey getPublicKey() {
-        return publicKey;
+        HdPublicKey key = publicKey;
+        if (key == null) {
+            synchronized (this) {
+                key = publicKey;
+                if (key == null) {
+                    key = KeyDerivation.of(coinType.getCurve()).getPublicKey(privateKey(), publicVersion);
+                    publicKey = key;
+                }
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return true when the public key was given or already computed
+     */
+    boolean hasPublicKey() {
+        return publicKey != null;
+    }
+
+    /**
+     * @return version of the public key, known without computing it
+     */
+    byte[] getPublicVersion() {
+        return publicVersion;
     }
 
     public CoinType getCoinType() {
@@ -40,6 +132,57 @@ public class HdAddress {
     }
 
     public String getPath() {
+        return path == null ? null : path.toString();
+    }
+
+    public DerivationPath getDerivationPath() {
         return path;
     }
+
+    /**
+     * The key identifier, hash160 of the serialized public key (the raw ed25519 key for
+     * ed25519 coins). Computed once and shared by every child derived from this node.
+     *
+     * @return a copy of the 20 byte identifier
+     */
+    public byte[] getIdentifier() {
+        return identifier().clone();
+    }
+
+    /**
+     * 
+     *
+     * @return the identifier itself, not to be modified
+     */
+    byte[] identifier() {
+        byte[] id = identifier;
+        if (id == null) {
+            HdPublicKey key = getPublicKey();
+            id = Hash.h160(coinType.getCurve() == Curve.ED25519 ? key.getPublicKey() : key.getKeyData());
+            identifier = id;
+        }
+        return id;
+    }
+
+    /**
+     * The HMAC used to derive children of this node, keyed once with the chain code and
+     * then shared by every child.
+     *
+     * @return
+     */
+    public ChainCodeHmac getChainHmac() {
+        ChainCodeHmac hmac = chainHmac;
+        if (hmac == null) {
+            hmac = new ChainCodeHmac(privateKey().getChainCode());
+            chainHmac = hmac;
+        }
+        return hmac;
+    }
+
+    /**
+     * @return the first 4 bytes of the identifier, the fingerprint children store as their parent's
+     */
+    public byte[] getFingerprint() {
+        return Arrays.copyOf(identifier(), 4);
+    }
 }
@@ -0,0 +1,172 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip32.wallet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded, thread-safe LRU cache of intermediate derivation nodes.
+ * <p>
+ * Derivation happens outside the lock, so two threads missing on the same key
+ * may both derive the node; derivation is deterministic and the first node
+ * stored wins.
+ *
+ * @param <K> the node key
+ * @author paymennt
+ */
+public class HdAddressCache<K> {
+
+    /**  */
+    private final int maxSize;
+
+    /**  */
+    private final Map<K, HdAddress> nodes;
+
+    /**  */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**  */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**  */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     *
+     *
+     * @param maxSize maximum number of nodes kept, least recently used nodes are evicted first
+     */
+    public HdAddressCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxSize = maxSize;
+        this.nodes = new LinkedHashMap<K, HdAddress>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, HdAddress> eldest) {
+                if (size() > HdAddressCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached node for the key, deriving and caching it on a miss.
+     *
+     * @param key
+     * @param loader derives the node for a missing key
+     * @return
+     */
+    public HdAddress get(K key, Function<? super K, HdAddress> loader) {
+        HdAddress address;
+        synchronized (nodes) {
+            address = nodes.get(key);
+        }
+        if (address != null) {
+            hits.incrementAndGet();
+            return address;
+        }
+
+        misses.incrementAndGet();
+        HdAddress derived = loader.apply(key);
+        synchronized (nodes) {
+            address = nodes.putIfAbsent(key, derived);
+        }
+        return address != null ? address : derived;
+    }
+
+    /**
+     * Caches a node derived on the way to another one, such as the account node above a
+     * chain node, without counting a hit or miss.
+     *
+     * @param key
+     * @param address
+     * @return the node cached for the key, the given one unless another was stored first
+     */
+    public HdAddress put(K key, HdAddress address) {
+        HdAddress cached;
+        synchronized (nodes) {
+            cached = nodes.putIfAbsent(key, address);
+        }
+        return cached != null ? cached : address;
+    }
+
+    /**
+     * Returns the cached node for the key without deriving it or counting a hit or miss.
+     *
+     * @param key
+     * @return null when the key is not cached
+     */
+    public HdAddress peek(K key) {
+        synchronized (nodes) {
+            return nodes.get(key);
+        }
+    }
+
+    /**
+     *
+     */
+    public void clear() {
+        synchronized (nodes) {
+            nodes.clear();
+        }
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public int size() {
+        synchronized (nodes) {
+            return nodes.size();
+        }
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
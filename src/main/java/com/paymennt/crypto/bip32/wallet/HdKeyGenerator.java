@@ -7,40 +7,32 @@
 package com.paymennt.crypto.bip32.wallet;
 
 import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 import org.bouncycastle.math.ec.ECPoint;
 
 import com.paymennt.crypto.CoinType;
 import com.paymennt.crypto.bip32.Network;
+import com.paymennt.crypto.bip32.crypto.ChainCodeHmac;
 import com.paymennt.crypto.bip32.crypto.Hash;
 import com.paymennt.crypto.bip32.crypto.HdUtil;
 import com.paymennt.crypto.bip32.crypto.HmacSha512;
+import com.paymennt.crypto.bip32.crypto.Scalar256;
 import com.paymennt.crypto.bip32.crypto.Secp256k1;
 import com.paymennt.crypto.bip32.exception.CryptoException;
 import com.paymennt.crypto.bip32.wallet.key.Curve;
-import com.paymennt.crypto.bip32.wallet.key.HdPrivateKey;
+import com.paymennt.crypto.bip32.wallet.key.HdKey;
 import com.paymennt.crypto.bip32.wallet.key.HdPublicKey;
 
-import net.i2p.crypto.eddsa.EdDSAPrivateKey;
-import net.i2p.crypto.eddsa.EdDSAPublicKey;
-import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
-import net.i2p.crypto.eddsa.spec.EdDSAParameterSpec;
-import net.i2p.crypto.eddsa.spec.EdDSAPrivateKeySpec;
-import net.i2p.crypto.eddsa.spec.EdDSAPublicKeySpec;
-
 public class HdKeyGenerator {
 
-    private static final EdDSAParameterSpec ED25519SPEC = EdDSANamedCurveTable.getByName("ed25519");
     public static final String MASTER_PATH = "m";
 
     public static HdAddress getAddressFromSeed(byte[] seed, Network network, CoinType coinType) {
 
         Curve curve = coinType.getCurve();
-        HdPublicKey publicKey = new HdPublicKey();
-        HdPrivateKey privateKey = new HdPrivateKey();
-        HdAddress address = new HdAddress(privateKey, publicKey, coinType, MASTER_PATH);
 
         byte[] I;
         try {
@@ -53,45 +45,12 @@ public class HdKeyGenerator {
         byte[] IL = Arrays.copyOfRange(I, 0, 32);
         byte[] IR = Arrays.copyOfRange(I, 32, 64);
 
-        BigInteger masterSecretKey = HdUtil.parse256(IL);
-
-        // In case IL is 0 or >=n, the master key is invalid.
-        if (curve != Curve.ED25519 && masterSecretKey.compareTo(BigInteger.ZERO) == 0
-                || masterSecretKey.compareTo(Secp256k1.getN()) > 0) {
-            throw new CryptoException("The master key is invalid");
-        }
-
-        privateKey.setVersion(network.getPrivateKeyVersion());
-        privateKey.setDepth(0);
-        privateKey.setFingerprint(new byte[] { 0, 0, 0, 0 });
-        privateKey.setChildNumber(new byte[] { 0, 0, 0, 0 });
-        privateKey.setChainCode(IR);
-        privateKey.setKeyData(HdUtil.append(new byte[] { 0 }, IL));
-
-        ECPoint point = Secp256k1.point(masterSecretKey);
-
-        publicKey.setVersion(network.getPublicKeyVersion());
-        publicKey.setDepth(0);
-        publicKey.setFingerprint(new byte[] { 0, 0, 0, 0 });
-        publicKey.setChildNumber(new byte[] { 0, 0, 0, 0 });
-        publicKey.setChainCode(IR);
-        publicKey.setKeyData(Secp256k1.serP(point));
-
-        switch (curve) {
-        case BITCOIN:
-            privateKey.setPrivateKey(privateKey.getKeyData());
-            publicKey.setPublicKey(publicKey.getKeyData());
-            break;
-        case ED25519:
-            privateKey.setPrivateKey(IL);
-            EdDSAPrivateKey sk = new EdDSAPrivateKey(new EdDSAPrivateKeySpec(IL, ED25519SPEC));
-            EdDSAPublicKey pk = new EdDSAPublicKey(new EdDSAPublicKeySpec(sk.getA(), sk.getParams()));
-            // publicKey.setPublicKey(HdUtil.append(new byte[]{0}, pk.getAbyte()));
-            publicKey.setPublicKey(pk.getAbyte());
-            break;
+        try {
+            return KeyDerivation.of(curve).getMasterAddress(IL, IR, network, coinType, DerivationPath.MASTER);
+        } finally {
+            Arrays.fill(I, (byte) 0);
+            Arrays.fill(IL, (byte) 0);
         }
-
-        return address;
     }
 
     public static HdPublicKey getPublicKey(HdPublicKey parent, long child, boolean isHardened, Curve curve) {
@@ -103,47 +62,84 @@ public class HdKeyGenerator {
             throw new UnsupportedOperationException("Unable to derive ed25519 public key chaining");
         }
 
-        byte[] key = parent.getKeyData();
-        byte[] data = HdUtil.append(key, HdUtil.ser32(child));
-        // I = HMAC-SHA512(Key = cpar, Data = serP(point(kpar)) || ser32(i))
-        byte[] I = HmacSha512.hmac512(data, parent.getChainCode());
-
-        byte[] IL = Arrays.copyOfRange(I, 0, 32);
-        byte[] IR = Arrays.copyOfRange(I, 32, 64);
-
-        HdPublicKey publicKey = new HdPublicKey();
-
-        publicKey.setVersion(parent.getVersion());
-        publicKey.setDepth(parent.getDepth() + 1);
-
-        byte[] pKd = parent.getKeyData();
-        byte[] h160 = Hash.h160(pKd);
-        byte[] childFingerprint = new byte[] { h160[0], h160[1], h160[2], h160[3] };
+        byte[] h160 = Hash.h160(parent.getKeyData());
+        byte[] fingerprint = new byte[] { h160[0], h160[1], h160[2], h160[3] };
+        return getPublicKey(parent, Secp256k1.deserP(parent.getKeyData()), fingerprint,
+                new ChainCodeHmac(parent.getChainCode()), child);
+    }
 
-        BigInteger ILBigInt = HdUtil.parse256(IL);
-        ECPoint point = Secp256k1.point(ILBigInt);
-        point = point.add(Secp256k1.deserP(parent.getKeyData()));
+    /**
+     * Public parent to public child derivation (CKDpub) for secp256k1 keys, reusing the
+     * parent point and fingerprint so that they are decoded and hashed once per parent
+     * rather than once per child.
+     *
+     * @param parent
+     * @param parentPoint the decoded point of {@code parent.getKeyData()}
+     * @param fingerprint the fingerprint of the parent key, stored in the child
+     * @param chainHmac HMAC keyed with the parent chain code
+     * @param child non-hardened child index
+     * @return
+     */
+    public static HdPublicKey getPublicKey(HdPublicKey parent, ECPoint parentPoint, byte[] fingerprint,
+            ChainCodeHmac chainHmac, long child) {
+        return getPublicKeys(parent, parentPoint, fingerprint, chainHmac, child, 1)[0];
+    }
 
-        if (ILBigInt.compareTo(Secp256k1.getN()) > 0 || point.isInfinity()) {
-            throw new CryptoException("This key is invalid, should proceed to next key");
-            //            return getPublicKey(parent, child+1, isHardened);
+    /**
+     * CKDpub over the contiguous range of children [fromIndex, fromIndex + count) of a
+     * public parent. The child points are serialized together, one field inversion for the
+     * whole range.
+     *
+     * @param parent
+     * @param parentPoint the decoded point of {@code parent.getKeyData()}
+     * @param fingerprint the fingerprint of the parent key, stored in the children
+     * @param chainHmac HMAC keyed with the parent chain code
+     * @param fromIndex first non-hardened child index
+     * @param count number of children
+     * @return children in index order
+     */
+    public static HdPublicKey[] getPublicKeys(HdPublicKey parent, ECPoint parentPoint, byte[] fingerprint,
+            ChainCodeHmac chainHmac, long fromIndex, int count) {
+        if (fromIndex < 0 || count < 0 || fromIndex + count > 0x80000000L) {
+            throw new CryptoException("Cannot derive child public keys from hardened keys");
         }
 
-        byte[] childKey = Secp256k1.serP(point);
-
-        publicKey.setFingerprint(childFingerprint);
-        publicKey.setChildNumber(HdUtil.ser32(child));
-        publicKey.setChainCode(IR);
-        publicKey.setKeyData(childKey);
-
-        return publicKey;
+        byte[][] chainCodes = new byte[count][];
+        ECPoint[] points = new ECPoint[count];
+        Scalar256 IL = new Scalar256();
+        for (int i = 0; i < count; i++) {
+            // I = HMAC-SHA512(Key = cpar, Data = serP(point(kpar)) || ser32(i))
+            byte[] I = chainHmac.hmac512(parent.getKeyData(), fromIndex + i);
+            chainCodes[i] = Arrays.copyOfRange(I, 32, 64);
+
+            if (!IL.decode(I, 0).isBelowN()) {
+                throw new CryptoException("This key is invalid, should proceed to next key");
+            }
+            points[i] = Secp256k1.point(IL).add(parentPoint);
+
+            if (points[i].isInfinity()) {
+                throw new CryptoException("This key is invalid, should proceed to next key");
+                //            return getPublicKey(parent, child+1, isHardened);
+            }
+        }
+        byte[] encoded = Secp256k1.serP(points);
+
+        // the children are packed into one slab
+        byte[] slab = new byte[count * HdKey.SERIALIZED_LENGTH];
+        byte[] version = parent.getVersion();
+        HdPublicKey[] publicKeys = new HdPublicKey[count];
+        for (int i = 0; i < count; i++) {
+            byte[] childKey = Arrays.copyOfRange(encoded, i * 33, i * 33 + 33);
+
+            publicKeys[i] = HdPublicKey.builder().version(version).depth(parent.getDepth() + 1)
+                    .fingerprint(fingerprint).childNumber(HdUtil.ser32(fromIndex + i)).chainCode(chainCodes[i])
+                    .keyData(childKey).publicKey(childKey).slab(slab, i * HdKey.SERIALIZED_LENGTH).build();
+        }
+        return publicKeys;
     }
 
     public static HdAddress getAddress(HdAddress parent, long child, boolean isHardened) {
-        HdPrivateKey privateKey = new HdPrivateKey();
-        HdPublicKey publicKey = new HdPublicKey();
-        HdAddress address = new HdAddress(privateKey, publicKey, parent.getCoinType(),
-                getPath(parent.getPath(), child, isHardened));
+        DerivationPath path = getPath(parent, child, isHardened);
 
         if (isHardened) {
             child += 0x80000000;
@@ -151,84 +147,83 @@ public class HdKeyGenerator {
             throw new CryptoException("ed25519 only supports hardened keys");
         }
 
-        byte[] xChain = parent.getPrivateKey().getChainCode();
-        /// backwards hmac order in method?
-        byte[] I;
-        if (isHardened) {
-            // If so (hardened child): let I = HMAC-SHA512(Key = cpar, Data = 0x00 ||
-            // ser256(kpar) || ser32(i)). (Note: The 0x00 pads the private key to make it 33
-            // bytes long.)
-            BigInteger kpar = HdUtil.parse256(parent.getPrivateKey().getKeyData());
-            byte[] data = HdUtil.append(new byte[] { 0 }, HdUtil.ser256(kpar));
-            data = HdUtil.append(data, HdUtil.ser32(child));
-            I = HmacSha512.hmac512(data, xChain);
-        } else {
-            // I = HMAC-SHA512(Key = cpar, Data = serP(point(kpar)) || ser32(i))
-            // just use public key
-            byte[] key = parent.getPublicKey().getKeyData();
-            byte[] xPubKey = HdUtil.append(key, HdUtil.ser32(child));
-            I = HmacSha512.hmac512(xPubKey, xChain);
-        }
+        return KeyDerivation.of(parent.getCoinType().getCurve()).getAddress(parent, child, isHardened, path);
+    }
 
-        // split into left/right
-        byte[] IL = Arrays.copyOfRange(I, 0, 32);
-        byte[] IR = Arrays.copyOfRange(I, 32, 64);
-        // The returned child key ki is parse256(IL) + kpar (mod n).
-        BigInteger parse256 = HdUtil.parse256(IL);
-        BigInteger kpar = HdUtil.parse256(parent.getPrivateKey().getKeyData());
-        BigInteger childSecretKey = parse256.add(kpar).mod(Secp256k1.getN());
-
-        byte[] childNumber = HdUtil.ser32(child);
-        byte[] fingerprint = HdUtil.getFingerprint(parent.getPrivateKey().getKeyData());
-
-        privateKey.setVersion(parent.getPrivateKey().getVersion());
-        privateKey.setDepth(parent.getPrivateKey().getDepth() + 1);
-        privateKey.setFingerprint(fingerprint);
-        privateKey.setChildNumber(childNumber);
-        privateKey.setChainCode(IR);
-        privateKey.setKeyData(HdUtil.append(new byte[] { 0 }, HdUtil.ser256(childSecretKey)));
-
-        ECPoint point = Secp256k1.point(childSecretKey);
-
-        publicKey.setVersion(parent.getPublicKey().getVersion());
-        publicKey.setDepth(parent.getPublicKey().getDepth() + 1);
-
-        // can just use fingerprint, but let's use data from parent public key
-        byte[] pKd = parent.getPublicKey().getKeyData();
-        byte[] h160 = Hash.h160(pKd);
-        byte[] childFingerprint = new byte[] { h160[0], h160[1], h160[2], h160[3] };
-
-        publicKey.setFingerprint(childFingerprint);
-        publicKey.setChildNumber(childNumber);
-        publicKey.setChainCode(IR);
-        publicKey.setKeyData(Secp256k1.serP(point));
-
-        switch (parent.getCoinType().getCurve()) {
-        case BITCOIN:
-            privateKey.setPrivateKey(privateKey.getKeyData());
-            publicKey.setPublicKey(publicKey.getKeyData());
-            break;
-        case ED25519:
-            privateKey.setPrivateKey(IL);
-            h160 = Hash.h160(parent.getPublicKey().getPublicKey());
-            childFingerprint = new byte[] { h160[0], h160[1], h160[2], h160[3] };
-            publicKey.setFingerprint(childFingerprint);
-            privateKey.setFingerprint(childFingerprint);
-            privateKey.setKeyData(HdUtil.append(new byte[] { 0 }, IL));
-
-            EdDSAPrivateKey sk = new EdDSAPrivateKey(new EdDSAPrivateKeySpec(IL, ED25519SPEC));
-            EdDSAPublicKey pk = new EdDSAPublicKey(new EdDSAPublicKeySpec(sk.getA(), sk.getParams()));
-            publicKey.setPublicKey(pk.getAbyte());
-            break;
+    /**
+     * Walks a path down from one of its ancestors.
+     *
+     * @param ancestor a node whose path is a prefix of the path, e.g. the master node
+     * @param path
+     * @return the node at the path
+     */
+    public static HdAddress getAddress(HdAddress ancestor, DerivationPath path) {
+        DerivationPath ancestorPath = ancestor.getDerivationPath();
+        if (ancestorPath == null) {
+            ancestorPath = DerivationPath.MASTER;
+        }
+        if (!path.startsWith(ancestorPath)) {
+            throw new CryptoException("Path " + path + " is not below " + ancestorPath);
         }
 
+        HdAddress address = ancestor;
+        for (int step = ancestorPath.getDepth(); step < path.getDepth(); step++) {
+            address = getAddress(address, path.getIndex(step), path.isHardened(step));
+        }
         return address;
     }
 
-    private static String getPath(String parentPath, long child, boolean isHardened) {
+    /**
+     * Derives the contiguous range of children [fromIndex, fromIndex + count) of a parent
+     * node into a preallocated array.
+     *
+     * @param parent shared parent node, derived once by the caller
+     * @param fromIndex first child index
+     * @param count number of children
+     * @param isHardened
+     * @return children in index order
+     */
+    public static HdAddress[] getAddresses(HdAddress parent, long fromIndex, int count, boolean isHardened) {
+        checkRange(fromIndex, count);
+        if (!isHardened && parent.getCoinType().getCurve() == Curve.ED25519) {
+            throw new CryptoException("ed25519 only supports hardened keys");
+        }
+
+        DerivationPath[] paths = new DerivationPath[count];
+        for (int i = 0; i < count; i++) {
+            paths[i] = getPath(parent, fromIndex + i, isHardened);
+        }
+        long firstChild = isHardened ? fromIndex + 0x80000000L : fromIndex;
+        return KeyDerivation.of(parent.getCoinType().getCurve()).getAddresses(parent, firstChild, isHardened, paths);
+    }
+
+    /**
+     * Lazy variant of {@link #getAddresses(HdAddress, long, int, boolean)}, each child is
+     * derived when the stream reaches it.
+     *
+     * @param parent shared parent node, derived once by the caller
+     * @param fromIndex first child index
+     * @param count number of children
+     * @param isHardened
+     * @return ordered stream of children
+     */
+    public static Stream<HdAddress> streamAddresses(HdAddress parent, long fromIndex, int count,
+            boolean isHardened) {
+        checkRange(fromIndex, count);
+        return LongStream.range(fromIndex, fromIndex + count).mapToObj(child -> getAddress(parent, child, isHardened));
+    }
+
+    private static void checkRange(long fromIndex, int count) {
+        if (fromIndex < 0 || count < 0 || fromIndex + count > 0x80000000L) {
+            throw new IllegalArgumentException("Child index range must be within [0, 2^31)");
+        }
+    }
+
+    private static DerivationPath getPath(HdAddress parent, long child, boolean isHardened) {
+        DerivationPath parentPath = parent.getDerivationPath();
         if (parentPath == null) {
-            parentPath = MASTER_PATH;
+            parentPath = DerivationPath.MASTER;
         }
-        return parentPath + "/" + child + (isHardened ? "'" : "");
+        return parentPath.child(child, isHardened);
     }
 }
@@ -0,0 +1,183 @@
+/************************************************************************ 
+ * Copyright PointCheckout, Ltd.
+ * 
+ */
+package com.paymennt.crypto.bip32.wallet;
+
+import java.util.Arrays;
+
+import com.paymennt.crypto.CoinType;
+import com.paymennt.crypto.bip32.Network;
+import com.paymennt.crypto.bip32.wallet.key.Curve;
+import com.paymennt.crypto.bip32.wallet.key.HdPrivateKey;
+import com.paymennt.crypto.bip32.wallet.key.HdPublicKey;
+
+/**
+ * Curve specific half of private key derivation. {@link HdKeyGenerator} computes the
+ * paths and validates the indices, the strategy for the coin's {@link Curve} turns the
+ * HMAC output into key material, so that each curve only does the math it needs.
+ * 
+ * @author paymennt
+ */
+abstract class KeyDerivation {
+
+    /**  */
+    private static final KeyDerivation SECP256K1 = new Secp256k1KeyDerivation();
+
+    /**  */
+    private static final KeyDerivation ED25519 = new Ed25519KeyDerivation();
+
+    /**
+     * 
+     *
+     * @param curve 
+     * @return 
+     */
+    static KeyDerivation of(Curve curve) {
+        switch (curve) {
+        case ED25519:
+            return ED25519;
+        case BITCOIN:
+        default:
+            return SECP256K1;
+        }
+    }
+
+    /**
+     * Builds the master node from I = HMAC-SHA512(Key = curve seed, Data = seed).
+     *
+     * @param IL 
+     * @param IR 
+     * @param network 
+     * @param coinType 
+     * @param path 
+     * @return 
+     */
+    abstract HdAddress getMasterAddress(byte[] IL, byte[] IR, Network network, CoinType coinType, DerivationPath path);
+
+    /**
+     * Rebuilds a node from the fields of a deserialized extended private key.
+     *
+     * @param network 
+     * @param depth 
+     * @param fingerprint 
+     * @param childNumber 
+     * @param chainCode 
+     * @param secretKey the 32 byte secret, without the leading zero of the key data
+     * @param coinType 
+     * @param path 
+     * @return 
+     */
+    abstract HdAddress getImportedAddress(Network network, int depth, byte[] fingerprint, byte[] childNumber,
+            byte[] chainCode, byte[] secretKey, CoinType coinType, DerivationPath path);
+
+    /**
+     * 
+     *
+     * @param parent 
+     * @param child child index, including the hardened offset
+     * @param isHardened 
+     * @param path 
+     * @return 
+     */
+    abstract HdAddress getAddress(HdAddress parent, long child, boolean isHardened, DerivationPath path);
+
+    /**
+     * Computes the public half of a node, sharing the chain code and fingerprint of its
+     * private key.
+     *
+     * @param privateKey 
+     * @param publicVersion 
+     * @return 
+     */
+    abstract HdPublicKey getPublicKey(HdPrivateKey privateKey, byte[] publicVersion);
+
+    /**
+     * Derives the children [firstChild, firstChild + paths.length) of one parent.
+     *
+     * @param parent 
+     * @param firstChild first child index, including the hardened offset
+     * @param isHardened 
+     * @param paths one path per child
+     * @return 
+     */
+    HdAddress[] getAddresses(HdAddress parent, long firstChild, boolean isHardened, DerivationPath[] paths) {
+        HdAddress[] addresses = new HdAddress[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            addresses[i] = getAddress(parent, firstChild + i, isHardened, paths[i]);
+        }
+        return addresses;
+    }
+
+    /**
+     * I = HMAC-SHA512(Key = cpar, Data = 0x00 || ser256(kpar) || ser32(i)), the private key
+     * data already holds the 0x00 padded ser256(kpar).
+     *
+     * @param parent 
+     * @param child 
+     * @return 
+     */
+    static byte[] hardenedHmac(HdAddress parent, long child) {
+        byte[] keyData = parent.privateKey().getKeyData();
+        try {
+            return parent.getChainHmac().hmac512(keyData, child);
+        } finally {
+            Arrays.fill(keyData, (byte) 0);
+        }
+    }
+
+    /**
+     * 
+     *
+     * @param I 
+     * @return 
+     */
+    static byte[] left(byte[] I) {
+        return Arrays.copyOfRange(I, 0, 32);
+    }
+
+    /**
+     * 
+     *
+     * @param I 
+     * @return 
+     */
+    static byte[] right(byte[] I) {
+        return Arrays.copyOfRange(I, 32, 64);
+    }
+
+    /**
+     * The fingerprint a child stores, the first bytes of the parent's identifier. The
+     * parent computes its public key for it once and shares the result with all its
+     * children, which keep these four bytes only, never the parent or its key.
+     *
+     * @param parent 
+     * @return 
+     */
+    static byte[] fingerprintOf(HdAddress parent) {
+        return parent.getFingerprint();
+    }
+
+    /**
+     * The public half of a node, sharing the depth, child number, chain code and parent
+     * fingerprint of its private key.
+     *
+     * @param privateKey 
+     * @param publicVersion 
+     * @param keyData serialized public key
+     * @param publicKey 
+     * @param slab shared array the key is packed into, null for an array of its own
+     * @param slabOffset 
+     * @return 
+     */
+    static HdPublicKey newPublicKey(HdPrivateKey privateKey, byte[] publicVersion, byte[] keyData,
+            byte[] publicKey, byte[] slab, int slabOffset) {
+        HdPublicKey.Builder builder = HdPublicKey.builder().version(publicVersion).depth(privateKey.getDepth())
+                .fingerprint(privateKey.getFingerprint()).childNumber(privateKey.getChildNumber())
+                .chainCode(privateKey.getChainCode()).keyData(keyData).publicKey(publicKey);
+        if (slab != null) {
+            builder.slab(slab, slabOffset);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,231 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip32.wallet;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.bouncycastle.math.ec.ECPoint;
+
+import com.paymennt.crypto.CoinType;
+import com.paymennt.crypto.bip32.crypto.ChainCodeHmac;
+import com.paymennt.crypto.bip32.crypto.Hash;
+import com.paymennt.crypto.bip32.crypto.Secp256k1;
+import com.paymennt.crypto.bip32.exception.CryptoException;
+import com.paymennt.crypto.bip32.wallet.AbstractWallet.Chain;
+import com.paymennt.crypto.bip32.wallet.key.Curve;
+import com.paymennt.crypto.bip32.wallet.key.HdPublicKey;
+
+/**
+ * Watch-only wallet built from an account-level extended public key.
+ * <p>
+ * Children are derived with public parent to public child derivation, so the
+ * wallet never holds a private key. The chain nodes are derived once, together
+ * with their decoded point, fingerprint and keyed HMAC, and every leaf then costs
+ * one HMAC, one fixed-base multiplication and one point addition.
+ *
+ * @author paymennt
+ */
+public abstract class PublicWallet {
+
+    /** leaves derived together by {@link #streamAddresses(Chain, int, int)} */
+    private static final int STREAM_BATCH_SIZE = 64;
+
+    /**  */
+    private final HdPublicKey accountKey;
+
+    /**  */
+    private final CoinType coinType;
+
+    /**  */
+    private final Map<Chain, ChainNode> chainNodes = new EnumMap<>(Chain.class);
+
+    /**
+     *
+     *
+     * @param accountKey the m/purpose'/coin'/account' public key, see {@link AbstractWallet#getAccountPublicKey(int)};
+     *            keys of any other depth are rejected
+     * @param coinType
+     */
+    protected PublicWallet(HdPublicKey accountKey, CoinType coinType) {
+        if (coinType.getCurve() != Curve.BITCOIN || coinType.getAlwaysHardened()) {
+            throw new CryptoException(coinType + " does not support public key derivation");
+        }
+        if (accountKey.getDepth() != 3 || (accountKey.getChildNumber()[0] & 0x80) == 0) {
+            throw new CryptoException("Expected a hardened account level (depth 3) extended public key");
+        }
+        this.accountKey = accountKey;
+        this.coinType = coinType;
+    }
+
+    /**
+     * Builds the wallet on a stored account level xpub, or on the public half of an xprv.
+     *
+     * @param extendedKey Base58Check xpub string
+     * @param coinType
+     */
+    protected PublicWallet(String extendedKey, CoinType coinType) {
+        this(ExtendedKey.decode(extendedKey), coinType);
+    }
+
+    /**
+     *
+     *
+     * @param extendedKey 78 byte xpub serialization
+     * @param coinType
+     * @see #PublicWallet(String, CoinType)
+     */
+    protected PublicWallet(byte[] extendedKey, CoinType coinType) {
+        this(ExtendedKey.getPublicKey(extendedKey, coinType), coinType);
+    }
+
+    /**
+     *
+     *
+     * @param chain
+     * @param index
+     * @return
+     */
+    public HdPublicKey getPublicKey(Chain chain, int index) {
+        ChainNode node = getChainNode(chain);
+        return HdKeyGenerator.getPublicKey(node.key, node.point, node.fingerprint, node.hmac, index);
+    }
+
+    /**
+     *
+     *
+     * @param chain
+     * @param fromIndex
+     * @param count
+     * @return public keys of the leaves [fromIndex, fromIndex + count)
+     */
+    public HdPublicKey[] getPublicKeys(Chain chain, int fromIndex, int count) {
+        checkRange(fromIndex, count);
+        ChainNode node = getChainNode(chain);
+        return HdKeyGenerator.getPublicKeys(node.key, node.point, node.fingerprint, node.hmac, fromIndex, count);
+    }
+
+    /**
+     *
+     *
+     * @param chain
+     * @param index
+     * @return
+     */
+    public abstract String getAddress(Chain chain, int index);
+
+    /**
+     * Encodes a leaf derived by this wallet. Wallets override this to encode the key
+     * directly; by default the leaf is encoded by its index, through
+     * {@link #getAddress(Chain, int)}, which derives it a second time.
+     *
+     * @param chain
+     * @param index
+     * @param key the public key of the leaf
+     * @return
+     */
+    protected String encode(Chain chain, int index, HdPublicKey key) {
+        return getAddress(chain, index);
+    }
+
+    /**
+     * Derives the range with {@link #getPublicKeys(Chain, int, int)} and encodes each key.
+     *
+     * @param chain
+     * @param fromIndex
+     * @param count
+     * @return
+     */
+    public String[] getAddresses(Chain chain, int fromIndex, int count) {
+        HdPublicKey[] keys = getPublicKeys(chain, fromIndex, count);
+        String[] addresses = new String[count];
+        for (int i = 0; i < count; i++)
+            addresses[i] = encode(chain, fromIndex + i, keys[i]);
+        return addresses;
+    }
+
+    /**
+     *
+     *
+     * @param chain
+     * @param fromIndex
+     * @param count
+     * @return lazy, ordered stream of the leaves [fromIndex, fromIndex + count), derived in
+     *         batches
+     */
+    public Stream<String> streamAddresses(Chain chain, int fromIndex, int count) {
+        checkRange(fromIndex, count);
+        int batches = (int) (((long) count + STREAM_BATCH_SIZE - 1) / STREAM_BATCH_SIZE);
+        return IntStream.range(0, batches).mapToObj(batch -> {
+            int from = fromIndex + batch * STREAM_BATCH_SIZE;
+            return getAddresses(chain, from, Math.min(STREAM_BATCH_SIZE, fromIndex + count - from));
+        }).flatMap(Arrays::stream);
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public HdPublicKey getAccountKey() {
+        return accountKey;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public CoinType getCoinType() {
+        return coinType;
+    }
+
+    /**
+     *
+     *
+     * @param chain
+     * @return
+     */
+    private ChainNode getChainNode(Chain chain) {
+        synchronized (chainNodes) {
+            return chainNodes.computeIfAbsent(chain, key -> new ChainNode(
+                    HdKeyGenerator.getPublicKey(accountKey, chain.getChainCode(), false, coinType.getCurve())));
+        }
+    }
+
+    /**
+     *
+     *
+     * @param fromIndex
+     * @param count
+     */
+    private static void checkRange(int fromIndex, int count) {
+        if (fromIndex < 0 || count < 0 || (long) fromIndex + count > 0x80000000L) {
+            throw new IllegalArgumentException("Child index range must be within [0, 2^31)");
+        }
+    }
+
+    /**
+     * A chain key with its decoded point, fingerprint and keyed HMAC.
+     */
+    private static class ChainNode {
+
+        private final HdPublicKey key;
+        private final ECPoint point;
+        private final byte[] fingerprint;
+        private final ChainCodeHmac hmac;
+
+        ChainNode(HdPublicKey key) {
+            this.key = key;
+            this.point = Secp256k1.deserP(key.getKeyData());
+            byte[] h160 = Hash.h160(key.getKeyData());
+            this.fingerprint = new byte[] { h160[0], h160[1], h160[2], h160[3] };
+            this.hmac = new ChainCodeHmac(key.getChainCode());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/************************************************************************ 
+ * Copyright PointCheckout, Ltd.
+ * 
+ */
+package com.paymennt.crypto.bip32.wallet;
+
+import java.util.Arrays;
+
+import org.bouncycastle.math.ec.ECPoint;
+
+import com.paymennt.crypto.CoinType;
+import com.paymennt.crypto.bip32.Network;
+import com.paymennt.crypto.bip32.crypto.HdUtil;
+import com.paymennt.crypto.bip32.crypto.Scalar256;
+import com.paymennt.crypto.bip32.crypto.Secp256k1;
+import com.paymennt.crypto.bip32.exception.CryptoException;
+import com.paymennt.crypto.bip32.wallet.key.HdKey;
+import com.paymennt.crypto.bip32.wallet.key.HdPrivateKey;
+import com.paymennt.crypto.bip32.wallet.key.HdPublicKey;
+
+/**
+ * BIP32 derivation over secp256k1.
+ * 
+ * @author paymennt
+ */
+class Secp256k1KeyDerivation extends KeyDerivation {
+
+    /**
+     * 
+     *
+     * @param IL 
+     * @param IR 
+     * @param network 
+     * @param coinType 
+     * @param path 
+     * @return 
+     */
+    @Override
+    HdAddress getMasterAddress(byte[] IL, byte[] IR, Network network, CoinType coinType, DerivationPath path) {
+        Scalar256 masterSecretKey = Scalar256.fromBytes(IL, 0);
+
+        // In case IL is 0 or >=n, the master key is invalid.
+        if (!masterSecretKey.isValidKey()) {
+            throw new CryptoException("The master key is invalid");
+        }
+
+        byte[] fingerprint = new byte[4];
+        return newAddress(network.getPrivateKeyVersion(), network.getPublicKeyVersion(), 0, fingerprint,
+                new byte[4], IR, masterSecretKey, coinType, path);
+    }
+
+    /**
+     * 
+     *
+     * @param network 
+     * @param depth 
+     * @param fingerprint 
+     * @param childNumber 
+     * @param chainCode 
+     * @param secretKey 
+     * @param coinType 
+     * @param path 
+     * @return 
+     */
+    @Override
+    HdAddress getImportedAddress(Network network, int depth, byte[] fingerprint, byte[] childNumber,
+            byte[] chainCode, byte[] secretKey, CoinType coinType, DerivationPath path) {
+        Scalar256 k = Scalar256.fromBytes(secretKey, 0);
+        if (!k.isValidKey()) {
+            throw new CryptoException("The private key is invalid");
+        }
+
+        return newAddress(network.getPrivateKeyVersion(), network.getPublicKeyVersion(), depth, fingerprint,
+                childNumber, chainCode, k, coinType, path);
+    }
+
+    /**
+     * 
+     *
+     * @param parent 
+     * @param child 
+     * @param isHardened 
+     * @param path 
+     * @return 
+     */
+    @Override
+    HdAddress getAddress(HdAddress parent, long child, boolean isHardened, DerivationPath path) {
+        byte[] I = childHmac(parent, child, isHardened);
+        Scalar256 childSecretKey = childSecretKey(I, Scalar256.fromBytes(parent.privateKey().getKeyData(), 1),
+                new Scalar256());
+
+        return newAddress(parent.privateKey().getVersion(), parent.getPublicVersion(),
+                parent.privateKey().getDepth() + 1, fingerprintOf(parent), HdUtil.ser32(child), right(I),
+                childSecretKey, parent.getCoinType(), path);
+    }
+
+    /**
+     * Derives all the child keys first, then serializes their public points together so
+     * that they are normalized with a single field inversion.
+     *
+     * @param parent 
+     * @param firstChild 
+     * @param isHardened 
+     * @param paths 
+     * @return 
+     */
+    @Override
+    HdAddress[] getAddresses(HdAddress parent, long firstChild, boolean isHardened, DerivationPath[] paths) {
+        int count = paths.length;
+        Scalar256 kpar = Scalar256.fromBytes(parent.privateKey().getKeyData(), 1);
+        Scalar256 childSecretKey = new Scalar256();
+        byte[] fingerprint = fingerprintOf(parent);
+
+        // the keys of the range are packed into two slabs, one per half
+        byte[] privateSlab = new byte[count * HdKey.SERIALIZED_LENGTH];
+        byte[] publicSlab = new byte[count * HdKey.SERIALIZED_LENGTH];
+        HdPrivateKey[] privateKeys = new HdPrivateKey[count];
+        ECPoint[] points = new ECPoint[count];
+        for (int i = 0; i < count; i++) {
+            byte[] I = childHmac(parent, firstChild + i, isHardened);
+            childSecretKey(I, kpar, childSecretKey);
+            points[i] = Secp256k1.point(childSecretKey);
+            privateKeys[i] = newPrivateKey(parent.privateKey().getVersion(), parent.privateKey().getDepth() + 1,
+                    fingerprint, HdUtil.ser32(firstChild + i), right(I), childSecretKey, privateSlab,
+                    i * HdKey.SERIALIZED_LENGTH);
+        }
+        kpar.clear();
+        byte[] encoded = Secp256k1.serP(points);
+
+        HdAddress[] addresses = new HdAddress[count];
+        for (int i = 0; i < count; i++) {
+            byte[] publicKeyData = Arrays.copyOfRange(encoded, i * 33, i * 33 + 33);
+            addresses[i] = new HdAddress(privateKeys[i], newPublicKey(privateKeys[i], parent.getPublicVersion(),
+                    publicKeyData, publicKeyData, publicSlab, i * HdKey.SERIALIZED_LENGTH), parent.getCoinType(),
+                    paths[i]);
+        }
+        return addresses;
+    }
+
+    /**
+     * serP(point(k)), the one point multiplication of a node.
+     *
+     * @param privateKey 
+     * @param publicVersion 
+     * @return 
+     */
+    @Override
+    HdPublicKey getPublicKey(HdPrivateKey privateKey, byte[] publicVersion) {
+        byte[] publicKeyData = Secp256k1.serP(Secp256k1.point(Scalar256.fromBytes(privateKey.getPrivateKey(), 1)));
+        return newPublicKey(privateKey, publicVersion, publicKeyData, publicKeyData, null, 0);
+    }
+
+    /**
+     * 
+     *
+     * @param parent 
+     * @param child 
+     * @param isHardened 
+     * @return I, the HMAC-SHA512 output of the child
+     */
+    private static byte[] childHmac(HdAddress parent, long child, boolean isHardened) {
+        if (isHardened) {
+            return hardenedHmac(parent, child);
+        }
+        // I = HMAC-SHA512(Key = cpar, Data = serP(point(kpar)) || ser32(i))
+        // just use public key
+        return parent.getChainHmac().hmac512(parent.getPublicKey().getKeyData(), child);
+    }
+
+    /**
+     * The returned child key ki is parse256(IL) + kpar (mod n).
+     *
+     * @param I 
+     * @param kpar 
+     * @param childSecretKey receives ki
+     * @return childSecretKey
+     */
+    private static Scalar256 childSecretKey(byte[] I, Scalar256 kpar, Scalar256 childSecretKey) {
+        childSecretKey.decode(I, 0);
+        if (!childSecretKey.isBelowN()) {
+            throw new CryptoException("This key is invalid, should proceed to next key");
+        }
+        childSecretKey.addModN(kpar);
+        if (childSecretKey.isZero()) {
+            throw new CryptoException("This key is invalid, should proceed to next key");
+        }
+        return childSecretKey;
+    }
+
+    /**
+     * 
+     *
+     * @param privateVersion 
+     * @param publicVersion 
+     * @param depth 
+     * @param fingerprint 
+     * @param childNumber 
+     * @param chainCode 
+     * @param secretKey 
+     * @param coinType 
+     * @param path 
+     * @return a node whose public key is computed on first use
+     */
+    private static HdAddress newAddress(byte[] privateVersion, byte[] publicVersion, int depth,
+            byte[] fingerprint, byte[] childNumber, byte[] chainCode, Scalar256 secretKey,
+            CoinType coinType, DerivationPath path) {
+        return new HdAddress(
+                newPrivateKey(privateVersion, depth, fingerprint, childNumber, chainCode, secretKey, null, 0),
+                publicVersion, coinType, path);
+    }
+
+    /**
+     * 
+     *
+     * @param version 
+     * @param depth 
+     * @param fingerprint 
+     * @param childNumber 
+     * @param chainCode 
+     * @param secretKey encoded into the key data, then cleared
+     * @param slab shared array the key is packed into, null for an array of its own
+     * @param slabOffset 
+     * @return 
+     */
+    private static HdPrivateKey newPrivateKey(byte[] version, int depth, byte[] fingerprint,
+            byte[] childNumber, byte[] chainCode, Scalar256 secretKey, byte[] slab, int slabOffset) {
+        byte[] privateKeyData = new byte[33];
+        secretKey.encode(privateKeyData, 1);
+        secretKey.clear();
+
+        HdPrivateKey.Builder builder = HdPrivateKey.builder().version(version).depth(depth).fingerprint(fingerprint)
+                .childNumber(childNumber).chainCode(chainCode).keyData(privateKeyData).privateKey(privateKeyData);
+        if (slab != null) {
+            builder.slab(slab, slabOffset);
+        }
+        HdPrivateKey privateKey = builder.build();
+        Arrays.fill(privateKeyData, (byte) 0);
+        return privateKey;
+    }
+}
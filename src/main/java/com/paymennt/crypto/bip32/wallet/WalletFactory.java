@@ -0,0 +1,334 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip32.wallet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.paymennt.crypto.CoinType;
+import com.paymennt.crypto.bip32.Network;
+import com.paymennt.crypto.bip32.wallet.AbstractWallet.Purpose;
+import com.paymennt.crypto.bip32.wallet.key.HdPrivateKey;
+import com.paymennt.crypto.lib.Digests;
+
+/**
+ * Opens wallets of one (purpose, network, coin type) through a bounded cache of their
+ * m/purpose'/coin' nodes, so re-opening a wallet skips the seed stretch and the three
+ * hardened derivations.
+ * <p>
+ * Entries are keyed by HMAC-SHA512 of the phrase and passphrase under a random key
+ * generated for each factory, so the cache holds nothing from which a phrase can be
+ * recovered or linked across processes. The cache owns its nodes: every wallet gets a
+ * copy of the secret arrays, and the private key and chain code bytes of a node, as well
+ * as the chain code HMAC state derived from them, are zeroed when it is evicted, expires
+ * or the cache is cleared.
+ *
+ * @param <W> the wallet type
+ * @author paymennt
+ */
+public class WalletFactory<W extends AbstractWallet> {
+
+    /**  */
+    public static final int DEFAULT_MAX_SIZE = 1024;
+
+    /**  */
+    private final Purpose purpose;
+
+    /**  */
+    private final Network network;
+
+    /**  */
+    private final CoinType coinType;
+
+    /** builds a wallet on a root node it takes ownership of */
+    private final Function<HdAddress, W> constructor;
+
+    /**  */
+    private final int maxSize;
+
+    /** 0 when entries never expire */
+    private final long ttlNanos;
+
+    /** HMAC key of the wallet ids */
+    private final byte[] idKey = new byte[32];
+
+    /**  */
+    private final Map<ByteBuffer, Entry> roots;
+
+    /**  */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**  */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**  */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     *
+     *
+     * @param purpose
+     * @param network
+     * @param coinType
+     * @param constructor e.g. {@code MyWallet::new} on a constructor calling {@link AbstractWallet#AbstractWallet(HdAddress)}
+     */
+    public WalletFactory(Purpose purpose, Network network, CoinType coinType, Function<HdAddress, W> constructor) {
+        this(purpose, network, coinType, constructor, DEFAULT_MAX_SIZE, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     *
+     *
+     * @param purpose
+     * @param network
+     * @param coinType
+     * @param constructor e.g. {@code MyWallet::new} on a constructor calling {@link AbstractWallet#AbstractWallet(HdAddress)}
+     * @param maxSize maximum number of root nodes kept, least recently opened wallets are evicted first
+     * @param ttl time a root node is kept after it was derived, 0 to keep it until evicted
+     * @param unit
+     */
+    public WalletFactory(Purpose purpose, Network network, CoinType coinType, Function<HdAddress, W> constructor,
+            int maxSize, long ttl, TimeUnit unit) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        if (ttl < 0) {
+            throw new IllegalArgumentException("Time to live must not be negative");
+        }
+        this.purpose = purpose;
+        this.network = network;
+        this.coinType = coinType;
+        this.constructor = constructor;
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        new SecureRandom().nextBytes(idKey);
+        this.roots = new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+                if (size() > WalletFactory.this.maxSize) {
+                    evictions.incrementAndGet();
+                    destroy(eldest.getValue().rootAddress);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Opens the wallet of a phrase, deriving its root node only when it is not cached.
+     *
+     * @param words
+     * @param passphrase
+     * @return a new wallet instance, sharing no key bytes with the cache
+     */
+    public W open(String words, String passphrase) {
+        ByteBuffer id = walletId(words, passphrase);
+
+        synchronized (roots) {
+            Entry entry = roots.get(id);
+            if (entry != null && isExpired(entry, System.nanoTime())) {
+                roots.remove(id);
+                destroy(entry.rootAddress);
+                evictions.incrementAndGet();
+                entry = null;
+            }
+            if (entry != null) {
+                hits.incrementAndGet();
+                return constructor.apply(copy(entry.rootAddress));
+            }
+        }
+
+        misses.incrementAndGet();
+        HdAddress rootAddress = AbstractWallet.deriveRootAddress(words, passphrase, purpose, network, coinType);
+        Entry derived = new Entry(copy(rootAddress), System.nanoTime());
+        synchronized (roots) {
+            if (roots.putIfAbsent(id, derived) != null) {
+                destroy(derived.rootAddress);
+            }
+        }
+        return constructor.apply(rootAddress);
+    }
+
+    /**
+     * Drops and zeroes the cached root node of a phrase, if any.
+     *
+     * @param words
+     * @param passphrase
+     */
+    public void invalidate(String words, String passphrase) {
+        ByteBuffer id = walletId(words, passphrase);
+        synchronized (roots) {
+            Entry entry = roots.remove(id);
+            if (entry != null) {
+                destroy(entry.rootAddress);
+            }
+        }
+    }
+
+    /**
+     * Drops and zeroes expired root nodes. Expired nodes are also dropped when they are
+     * looked up, calling this periodically bounds how long unused keys stay in memory.
+     */
+    public void evictExpired() {
+        if (ttlNanos == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (roots) {
+            for (Iterator<Entry> it = roots.values().iterator(); it.hasNext();) {
+                Entry entry = it.next();
+                if (isExpired(entry, now)) {
+                    it.remove();
+                    destroy(entry.rootAddress);
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops and zeroes every cached root node.
+     */
+    public void clear() {
+        synchronized (roots) {
+            for (Entry entry : roots.values()) {
+                destroy(entry.rootAddress);
+            }
+            roots.clear();
+        }
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public int size() {
+        synchronized (roots) {
+            return roots.size();
+        }
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     *
+     *
+     * @return
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     *
+     *
+     * @param entry
+     * @param now
+     * @return
+     */
+    private boolean isExpired(Entry entry, long now) {
+        return ttlNanos != 0 && now - entry.created >= ttlNanos;
+    }
+
+    /**
+     * HMAC-SHA512(Key = factory key, Data = len(words) || words || passphrase), the phrase
+     * normalised the way {@link com.paymennt.crypto.bip39.MnemonicGenerator} does.
+     *
+     * @param words
+     * @param passphrase
+     * @return
+     */
+    private ByteBuffer walletId(String words, String passphrase) {
+        byte[] phrase = words.trim().getBytes(StandardCharsets.UTF_8);
+        byte[] password = (passphrase == null ? "" : passphrase).getBytes(StandardCharsets.UTF_8);
+        byte[] data = ByteBuffer.allocate(4 + phrase.length + password.length).putInt(phrase.length).put(phrase)
+                .put(password).array();
+        try {
+            return ByteBuffer.wrap(Digests.hmacSha512(idKey, data));
+        } finally {
+            Arrays.fill(phrase, (byte) 0);
+            Arrays.fill(password, (byte) 0);
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+
+    /**
+     * Copy of a node sharing no secret bytes with it, so that destroying one leaves the
+     * other intact. The immutable public key is shared.
+     *
+     * @param address
+     * @return
+     */
+    private static HdAddress copy(HdAddress address) {
+        HdPrivateKey privateCopy = address.privateKey().copy();
+
+        if (!address.hasPublicKey()) {
+            return new HdAddress(privateCopy, address.getPublicVersion(), address.getCoinType(),
+                    address.getDerivationPath());
+        }
+        return new HdAddress(privateCopy, address.getPublicKey(), address.getCoinType(), address.getDerivationPath());
+    }
+
+    /**
+     * Zeroes the secret material of a node owned by the cache.
+     *
+     * @param address
+     */
+    private static void destroy(HdAddress address) {
+        address.destroy();
+    }
+
+    /**
+     * A cached root node and when it was derived.
+     */
+    private static class Entry {
+
+        private final HdAddress rootAddress;
+        private final long created;
+
+        Entry(HdAddress rootAddress, long created) {
+            this.rootAddress = rootAddress;
+            this.created = created;
+        }
+    }
+}
@@ -9,61 +9,76 @@ package com.paymennt.crypto.bip32.wallet.key;
 import com.paymennt.crypto.bip32.crypto.Hash;
 import com.paymennt.crypto.bip32.exception.CryptoException;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.util.Arrays;
+import java.util.function.Supplier;
 
 /**
  * Marshalling code for HDKeys to base58 representations.
  * <p>
- * Will probably be migrated to builder pattern.
+ * Keys are immutable and built through their {@link Builder}, so derived nodes can be
+ * shared between threads and cached without copies. All fields live in one 78 byte
+ * region laid out as the BIP32 serialization, either an array of its own or a slice of a
+ * slab shared by a batch of keys, so a key costs a single object besides the region.
+ * The builder copies the fields into the region and the getters return fresh copies:
+ * the region itself is never exposed. Only {@link HdPrivateKey#destroy()} writes to a
+ * built key.
  */
 public class HdKey {
-    private byte[] version;
-    private int depth;
-    private byte[] fingerprint;
-    private byte[] childNumber;
-    private byte[] chainCode;
-    private byte[] keyData;
-
-    HdKey(byte[] version, int depth, byte[] fingerprint, byte[] childNumber, byte[] chainCode, byte[] keyData) {
-        this.version = version;
-        this.depth = depth;
-        this.fingerprint = fingerprint;
-        this.childNumber = childNumber;
-        this.chainCode = chainCode;
-        this.keyData = keyData;
-    }
-
-    HdKey() {
-    }
-
-    public void setVersion(byte[] version) {
-        this.version = version;
-    }
+    public static final int SERIALIZED_LENGTH = 78;
 
-    public void setDepth(int depth) {
-        this.depth = depth;
-    }
+    static final int DEPTH = 4;
+    static final int FINGERPRINT = 5;
+    static final int CHILD_NUMBER = 9;
+    static final int CHAIN_CODE = 13;
+    static final int KEY_DATA = 45;
 
-    public void setFingerprint(byte[] fingerprint) {
-        this.fingerprint = fingerprint;
-    }
+    /** version || depth || fingerprint || child number || chain code || key data */
+    final byte[] data;
+    final int offset;
 
-    public void setChildNumber(byte[] childNumber) {
-        this.childNumber = childNumber;
-    }
+    /** set while the fingerprint is deferred */
+    private volatile Supplier<byte[]> fingerprintSource;
 
-    public void setChainCode(byte[] chainCode) {
-        this.chainCode = chainCode;
+    HdKey(Builder<?> builder) {
+        if (builder.version.length != 4 || builder.childNumber.length != 4 || builder.chainCode.length != 32
+                || builder.keyData.length != 33 || builder.depth < 0 || builder.depth > 255
+                || (builder.fingerprint != null && builder.fingerprint.length != 4)) {
+            throw new CryptoException("Unable to write key");
+        }
+        if (builder.slab != null) {
+            this.data = builder.slab;
+            this.offset = builder.slabOffset;
+        } else {
+            this.data = new byte[SERIALIZED_LENGTH];
+            this.offset = 0;
+        }
+        System.arraycopy(builder.version, 0, data, offset, 4);
+        data[offset + DEPTH] = (byte) builder.depth;
+        if (builder.fingerprint != null) {
+            System.arraycopy(builder.fingerprint, 0, data, offset + FINGERPRINT, 4);
+        }
+        System.arraycopy(builder.childNumber, 0, data, offset + CHILD_NUMBER, 4);
+        System.arraycopy(builder.chainCode, 0, data, offset + CHAIN_CODE, 32);
+        System.arraycopy(builder.keyData, 0, data, offset + KEY_DATA, 33);
+        this.fingerprintSource = builder.fingerprintSource;
     }
 
-    public void setKeyData(byte[] keyData) {
-        this.keyData = keyData;
+    /**
+     * A copy of a key in a region of its own, its fingerprint still deferred when it was.
+     *
+     * @param key
+     */
+    HdKey(HdKey key) {
+        this.data = new byte[SERIALIZED_LENGTH];
+        this.offset = 0;
+        synchronized (key) {
+            System.arraycopy(key.data, key.offset, data, 0, SERIALIZED_LENGTH);
+            this.fingerprintSource = key.fingerprintSource;
+        }
     }
 
     public byte[] getChainCode() {
-        return chainCode;
+        return slice(CHAIN_CODE, 32);
     }
 
     /**
@@ -71,38 +86,174 @@ public class HdKey {
      * @return full HD Key
      */
     public byte[] getPublicKey() {
+        byte[] key = Arrays.copyOf(serialize(), SERIALIZED_LENGTH + 4);
+        byte[] checksum = Hash.sha256Twice(key, 0, SERIALIZED_LENGTH);
+        System.arraycopy(checksum, 0, key, SERIALIZED_LENGTH, 4);
+        return key;
+    }
 
-        ByteArrayOutputStream key = new ByteArrayOutputStream();
-
-        try {
-            key.write(version);
-            key.write(new byte[]{(byte) depth});
-            key.write(fingerprint);
-            key.write(childNumber);
-            key.write(chainCode);
-            key.write(keyData);
-            byte[] checksum = Hash.sha256Twice(key.toByteArray());
-            key.write(Arrays.copyOfRange(checksum, 0, 4));
-        } catch (IOException e) {
-            throw new CryptoException("Unable to write key");
-        }
-
-        return key.toByteArray();
+    /**
+     * The 78 byte BIP32 serialization, without the checksum.
+     * @return version || depth || fingerprint || child number || chain code || key data
+     */
+    public byte[] serialize() {
+        resolveFingerprint();
+        return slice(0, SERIALIZED_LENGTH);
     }
 
     public int getDepth() {
-        return depth;
+        return data[offset + DEPTH] & 0xff;
     }
 
     public byte[] getKeyData() {
-        return keyData;
+        return slice(KEY_DATA, 33);
     }
 
     public byte[] getVersion() {
-        return version;
+        return slice(0, 4);
     }
 
+    /**
+     * @return the parent fingerprint, read from its source on first use when it was deferred
+     */
     public byte[] getFingerprint() {
-        return fingerprint;
+        resolveFingerprint();
+        return slice(FINGERPRINT, 4);
+    }
+
+    public byte[] getChildNumber() {
+        return slice(CHILD_NUMBER, 4);
+    }
+
+    /**
+     * @param from field offset within the layout
+     * @param length
+     * @return a copy of the field
+     */
+    byte[] slice(int from, int length) {
+        return Arrays.copyOfRange(data, offset + from, offset + from + length);
+    }
+
+    /**
+     * Drops a deferred fingerprint without resolving it, for keys being destroyed, so
+     * that the key no longer references whatever its source captured.
+     */
+    synchronized void dropFingerprintSource() {
+        fingerprintSource = null;
+    }
+
+    private void resolveFingerprint() {
+        if (fingerprintSource != null) {
+            synchronized (this) {
+                Supplier<byte[]> source = fingerprintSource;
+                if (source != null) {
+                    byte[] fingerprint = source.get();
+                    if (fingerprint.length != 4) {
+                        throw new CryptoException("Unable to write key");
+                    }
+                    System.arraycopy(fingerprint, 0, data, offset + FINGERPRINT, 4);
+                    fingerprintSource = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fields shared by private and public keys, copied into the packed region on build.
+     *
+     * @param <B> the concrete builder
+     */
+    public abstract static class Builder<B extends Builder<B>> {
+        private byte[] version;
+        private int depth;
+        private byte[] fingerprint;
+        private Supplier<byte[]> fingerprintSource;
+        private byte[] childNumber;
+        private byte[] chainCode;
+        private byte[] keyData;
+        private byte[] slab;
+        private int slabOffset;
+
+        Builder() {
+        }
+
+        public B version(byte[] version) {
+            this.version = version;
+            return self();
+        }
+
+        public B depth(int depth) {
+            this.depth = depth;
+            return self();
+        }
+
+        public B fingerprint(byte[] fingerprint) {
+            this.fingerprint = fingerprint;
+            this.fingerprintSource = null;
+            return self();
+        }
+
+        /**
+         * Defers the parent fingerprint, which costs the parent's public key, until the key
+         * is serialized or the fingerprint is read. The source is dropped once called.
+         * @param fingerprint source of the 4 byte parent fingerprint
+         * @return this builder
+         */
+        public B fingerprint(Supplier<byte[]> fingerprint) {
+            this.fingerprint = null;
+            this.fingerprintSource = fingerprint;
+            return self();
+        }
+
+        public B childNumber(byte[] childNumber) {
+            this.childNumber = childNumber;
+            return self();
+        }
+
+        public B chainCode(byte[] chainCode) {
+            this.chainCode = chainCode;
+            return self();
+        }
+
+        public B keyData(byte[] keyData) {
+            this.keyData = keyData;
+            return self();
+        }
+
+        /**
+         * Packs the key into {@link HdKey#SERIALIZED_LENGTH} bytes of a shared array
+         * instead of an array of its own. The key owns that slice from then on.
+         * @param slab
+         * @param offset start of the slice
+         * @return this builder
+         */
+        public B slab(byte[] slab, int offset) {
+            if (offset < 0 || offset > slab.length - SERIALIZED_LENGTH) {
+                throw new IllegalArgumentException("The slab has no room for a key at " + offset);
+            }
+            this.slab = slab;
+            this.slabOffset = offset;
+            return self();
+        }
+
+        /**
+         * @param keyData
+         * @param key the raw key, the key data or the key data without its leading zero
+         * @return the offset of the raw key within the layout
+         */
+        static int keyOffset(byte[] keyData, byte[] key) {
+            int skip = keyData.length - key.length;
+            if ((skip != 0 && skip != 1)
+                    || !Arrays.equals(keyData, skip, keyData.length, key, 0, key.length)) {
+                throw new CryptoException("The key must be the key data, with or without its leading zero");
+            }
+            return KEY_DATA + skip;
+        }
+
+        byte[] keyData() {
+            return keyData;
+        }
+
+        abstract B self();
     }
 }
@@ -6,17 +6,81 @@
  */
 package com.paymennt.crypto.bip32.wallet.key;
 
+import java.util.Arrays;
+
+import javax.security.auth.Destroyable;
+
 /**
  * Defines a key with a given private key
+ * <p>
+ * The private key is a view of the key data, so it takes no room of its own.
+ * {@link #destroy()} zeroes the chain code and the key data in place and drops a
+ * deferred fingerprint.
  */
-public class HdPrivateKey extends HdKey {
-    private byte[] privateKey;
+public class HdPrivateKey extends HdKey implements Destroyable {
+    private final int keyOffset;
+    private volatile boolean destroyed;
+
+    private HdPrivateKey(Builder builder) {
+        super(builder);
+        this.keyOffset = Builder.keyOffset(builder.keyData(), builder.privateKey);
+    }
+
+    private HdPrivateKey(HdPrivateKey key) {
+        super(key);
+        this.keyOffset = key.keyOffset;
+        this.destroyed = key.destroyed;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
 
     public byte[] getPrivateKey() {
-        return privateKey;
+        return slice(keyOffset, SERIALIZED_LENGTH - keyOffset);
+    }
+
+    /**
+     * @return a copy in a region of its own, destroying either key leaves the other intact
+     */
+    public HdPrivateKey copy() {
+        return new HdPrivateKey(this);
+    }
+
+    @Override
+    public void destroy() {
+        destroyed = true;
+        Arrays.fill(data, offset + CHAIN_CODE, offset + SERIALIZED_LENGTH, (byte) 0);
+        dropFingerprintSource();
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return destroyed;
     }
 
-    public void setPrivateKey(byte[] privateKey) {
-        this.privateKey = privateKey;
+    public static class Builder extends HdKey.Builder<Builder> {
+        private byte[] privateKey;
+
+        private Builder() {
+        }
+
+        /**
+         * @param privateKey the key data, or the key data without its leading zero
+         * @return this builder
+         */
+        public Builder privateKey(byte[] privateKey) {
+            this.privateKey = privateKey;
+            return this;
+        }
+
+        public HdPrivateKey build() {
+            return new HdPrivateKey(this);
+        }
+
+        @Override
+        Builder self() {
+            return this;
+        }
     }
 }
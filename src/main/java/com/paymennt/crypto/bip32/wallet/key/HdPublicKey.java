@@ -10,19 +10,51 @@ import org.bouncycastle.util.encoders.Hex;
 
 /**
  * Defines a key with a given public key
+ * <p>
+ * The public key is a view of the key data, so it takes no room of its own.
  */
 public class HdPublicKey extends HdKey {
-    private byte[] publicKey;
+    private final int keyOffset;
 
-    public byte[] getPublicKey() {
-        return publicKey;
+    private HdPublicKey(Builder builder) {
+        super(builder);
+        this.keyOffset = Builder.keyOffset(builder.keyData(), builder.publicKey);
     }
 
-    public void setPublicKey(byte[] publicKey) {
-        this.publicKey = publicKey;
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public byte[] getPublicKey() {
+        return slice(keyOffset, SERIALIZED_LENGTH - keyOffset);
     }
 
     public String getHex() {
-        return Hex.toHexString(publicKey);
+        return Hex.toHexString(getPublicKey());
+    }
+
+    public static class Builder extends HdKey.Builder<Builder> {
+        private byte[] publicKey;
+
+        private Builder() {
+        }
+
+        /**
+         * @param publicKey the key data, or the key data without its leading zero
+         * @return this builder
+         */
+        public Builder publicKey(byte[] publicKey) {
+            this.publicKey = publicKey;
+            return this;
+        }
+
+        public HdPublicKey build() {
+            return new HdPublicKey(this);
+        }
+
+        @Override
+        Builder self() {
+            return this;
+        }
     }
 }
@@ -0,0 +1,177 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip39;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Turns many mnemonic phrases into seeds, for bulk imports.
+ * <p>
+ * Every phrase is validated on the calling thread first, which costs one SHA-256,
+ * so only well formed phrases reach the 2048 round stretch. The stretches are then
+ * handed to the executor in batches, each worker thread reusing one
+ * {@link Pbkdf2HmacSha512} engine. A failing item is reported in its own
+ * {@link Result} and never aborts the rest of the batch.
+ *
+ * @author paymennt
+ */
+public class BatchSeedGenerator {
+
+    /** phrases stretched by a single task */
+    public static final int DEFAULT_BATCH_SIZE = 16;
+
+    /**  */
+    private static final ThreadLocal<Pbkdf2HmacSha512> ENGINES = ThreadLocal.withInitial(Pbkdf2HmacSha512::new);
+
+    /**  */
+    private final Executor executor;
+
+    /**  */
+    private final int batchSize;
+
+    /**
+     *
+     */
+    public BatchSeedGenerator() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     *
+     *
+     * @param executor bounds the parallelism, e.g. a fixed thread pool
+     * @param batchSize
+     */
+    public BatchSeedGenerator(Executor executor, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.executor = executor;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     *
+     *
+     * @param requests
+     * @return one result per request, in request order
+     */
+    public List<Result> generate(List<Request> requests) {
+        Result[] results = new Result[requests.size()];
+        int[] valid = new int[results.length];
+        int validCount = 0;
+
+        for (int i = 0; i < results.length; i++) {
+            try {
+                Arrays.fill(MnemonicGenerator.getEntropy(requests.get(i).words), (byte) 0);
+                valid[validCount++] = i;
+            } catch (RuntimeException e) {
+                results[i] = new Result(null, e);
+            }
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int from = 0; from < validCount; from += batchSize) {
+            int start = from;
+            int end = Math.min(from + batchSize, validCount);
+            futures.add(CompletableFuture.runAsync(() -> {
+                Pbkdf2HmacSha512 engine = ENGINES.get();
+                for (int j = start; j < end; j++) {
+                    Request request = requests.get(valid[j]);
+                    try {
+                        results[valid[j]] = new Result(
+                                MnemonicGenerator.stretch(request.words, request.passphrase, engine), null);
+                    } catch (RuntimeException e) {
+                        results[valid[j]] = new Result(null, e);
+                    }
+                }
+            }, executor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * A mnemonic phrase and its optional passphrase.
+     */
+    public static class Request {
+
+        /**  */
+        private final String words;
+
+        /**  */
+        private final String passphrase;
+
+        /**
+         *
+         *
+         * @param words
+         * @param passphrase may be null
+         */
+        public Request(String words, String passphrase) {
+            this.words = words;
+            this.passphrase = passphrase;
+        }
+
+        public String getWords() {
+            return words;
+        }
+
+        public String getPassphrase() {
+            return passphrase;
+        }
+    }
+
+    /**
+     * Either the seed of one request or the reason it has none.
+     */
+    public static class Result {
+
+        /**  */
+        private final byte[] seed;
+
+        /**  */
+        private final RuntimeException error;
+
+        /**
+         *
+         *
+         * @param seed
+         * @param error
+         */
+        private Result(byte[] seed, RuntimeException error) {
+            this.seed = seed;
+            this.error = error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         *
+         *
+         * @return the 64 byte seed, null when {@link #getError()} is set
+         */
+        public byte[] getSeed() {
+            return seed;
+        }
+
+        /**
+         *
+         *
+         * @return typically an {@link InvalidMnemonicException}, null on success
+         */
+        public RuntimeException getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/************************************************************************ 
+ * Copyright PointCheckout, Ltd.
+ * 
+ */
+package com.paymennt.crypto.bip39;
+
+/**
+ * Thrown when a mnemonic phrase fails BIP39 validation.
+ * 
+ * @author paymennt
+ */
+public class InvalidMnemonicException extends IllegalArgumentException {
+
+    /**  */
+    private static final long serialVersionUID = 4790214436920614519L;
+
+    /**  */
+    private final int[] wordPositions;
+
+    /**
+     * 
+     *
+     * @param message 
+     * @param wordPositions zero based positions of the offending words
+     */
+    public InvalidMnemonicException(String message, int... wordPositions) {
+        super(message);
+        this.wordPositions = wordPositions;
+    }
+
+    /**
+     * Positions of the words that failed validation. Unknown words are reported
+     * individually; a checksum mismatch reports the last word, which carries the
+     * checksum bits, although any word may be the mistyped one.
+     *
+     * @return zero based word positions, empty when the phrase is rejected as a whole
+     */
+    public int[] getWordPositions() {
+        return wordPositions.clone();
+    }
+}
@@ -1,12 +1,12 @@
 package com.paymennt.crypto.bip39;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
+import java.util.Arrays;
+import java.util.List;
 
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
+import com.paymennt.crypto.lib.Digests;
 
 /**
  * Generate and Process Mnemonic codes
@@ -17,48 +17,121 @@ public class MnemonicGenerator {
 
     public static byte[] getSeedFromWordlist(String words, String password) {
 
-        if (password == null) {
-            password = "";
-        }
+        // reject bad phrases before paying for the stretch
+        Arrays.fill(getEntropy(words), (byte) 0);
+
+        return stretch(words, password, new Pbkdf2HmacSha512());
+    }
+
+    /**
+     * Batch flavour of {@link #getSeedFromWordlist(String, String)}, spread over the
+     * common fork join pool.
+     *
+     * @param requests
+     * @return one result per request, in request order
+     * @see BatchSeedGenerator
+     */
+    public static List<BatchSeedGenerator.Result> getSeedsFromWordlists(List<BatchSeedGenerator.Request> requests) {
+        return new BatchSeedGenerator().generate(requests);
+    }
+
+    /**
+     * Validates a phrase against the English word list and its BIP39 checksum and
+     * returns the entropy it encodes.
+     *
+     * @param words space separated mnemonic words
+     * @return the 16 to 32 byte entropy
+     * @throws InvalidMnemonicException with the positions of unknown words, or of the
+     *         checksum word when the checksum does not match
+     */
+    public static byte[] getEntropy(String words) {
 
         // validate that things look alright
-        String[] wordsList = words.split(" ");
+        String[] wordsList = words.trim().split(" ");
         if (wordsList.length < 12) {
-            throw new IllegalArgumentException("Must be at least 12 words");
+            throw new InvalidMnemonicException("Must be at least 12 words");
         }
         if (wordsList.length > 24) {
-            throw new IllegalArgumentException("Must be less than 24 words");
+            throw new InvalidMnemonicException("Must be less than 24 words");
+        }
+        if (wordsList.length % 3 != 0) {
+            throw new InvalidMnemonicException("Word count must be a multiple of 3");
         }
 
-        // check all the words are found
-        for (String word : wordsList) {
-            if (WordList.ENGLISH.getWordIndex(word.trim().toCharArray()) < 0) {
-                throw new IllegalArgumentException("Unknown word: " + word);
-
+        // check all the words are found, packing their 11 bit indices as we go
+        byte[] bits = new byte[(wordsList.length * 11 + 7) / 8];
+        int[] unknown = new int[wordsList.length];
+        int unknownCount = 0;
+        for (int i = 0; i < wordsList.length; i++) {
+            Integer index = WordList.ENGLISH.getWordIndex(wordsList[i].trim().toCharArray());
+            if (index == null) {
+                unknown[unknownCount++] = i;
+                continue;
+            }
+            for (int bit = 0; bit < 11; bit++) {
+                if ((index & (1 << (10 - bit))) != 0) {
+                    int position = i * 11 + bit;
+                    bits[position >>> 3] |= 1 << (7 - (position & 7));
+                }
             }
         }
+        if (unknownCount > 0) {
+            throw new InvalidMnemonicException("Unknown word: " + wordsList[unknown[0]],
+                    Arrays.copyOf(unknown, unknownCount));
+        }
+
+        // check the checksum, the first ENT / 32 bits of SHA-256(entropy)
+        int entropyBits = wordsList.length * 32 / 3;
+        int checksumBits = entropyBits / 32;
+        byte[] entropy = Arrays.copyOf(bits, entropyBits / 8);
+        byte[] hash = Digests.sha256(entropy);
+        int mask = (0xff << (8 - checksumBits)) & 0xff;
+        boolean valid = ((bits[entropyBits / 8] ^ hash[0]) & mask) == 0;
+        Arrays.fill(bits, (byte) 0);
+        if (!valid) {
+            Arrays.fill(entropy, (byte) 0);
+            throw new InvalidMnemonicException("Invalid checksum", wordsList.length - 1);
+        }
+
+        return entropy;
+    }
 
-        // check the checksum
+    /**
+     * The PBKDF2 stretch of an already validated phrase.
+     *
+     * @param words
+     * @param password
+     * @param engine
+     * @return
+     */
+    static byte[] stretch(String words, String password, Pbkdf2HmacSha512 engine) {
+
+        if (password == null) {
+            password = "";
+        }
 
         String salt = "mnemonic" + password;
-        return pbkdf2HmacSha512(words.trim().toCharArray(), salt.getBytes(StandardCharsets.UTF_8), 2048, 512);
+        return pbkdf2HmacSha512(words.trim().toCharArray(), salt.getBytes(StandardCharsets.UTF_8), 2048, 512, engine);
     }
 
     private static byte[] pbkdf2HmacSha512(
             final char[] password,
             final byte[] salt,
             final int iterations,
-            final int keyLength) {
+            final int keyLength,
+            final Pbkdf2HmacSha512 engine) {
 
+        // same password encoding as the JCA PBKDF2WithHmacSHA512 implementation
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] passwordBytes = new byte[encoded.remaining()];
+        encoded.get(passwordBytes);
         try {
-            SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
-            PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, keyLength);
-            SecretKey key = skf.generateSecret(spec);
-            byte[] res = key.getEncoded();
-            return res;
-
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
-            throw new RuntimeException(e);
+            return engine.derive(passwordBytes, salt, iterations, keyLength / 8);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+            if (encoded.hasArray()) {
+                Arrays.fill(encoded.array(), (byte) 0);
+            }
         }
     }
 
@@ -0,0 +1,307 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ *
+ */
+package com.paymennt.crypto.bip39;
+
+import java.util.Arrays;
+
+/**
+ * PBKDF2 with HMAC-SHA512, specialised for the BIP39 seed stretch.
+ * <p>
+ * The password is keyed once: the SHA-512 states after the inner and outer pad
+ * blocks are kept, so every iteration is exactly two compressions of a single,
+ * already padded block held in a fixed {@code long[]} message schedule. Nothing is
+ * allocated inside the iteration loop.
+ * <p>
+ * Instances keep their working state in fields and are not thread-safe; use one per
+ * thread.
+ *
+ * @author paymennt
+ */
+public class Pbkdf2HmacSha512 {
+
+    /**  */
+    private static final int BLOCK_LENGTH = 128;
+
+    /**  */
+    private static final int DIGEST_LENGTH = 64;
+
+    /** bit length of a one block key pad followed by a 64 byte message */
+    private static final long PADDED_DIGEST_BITS = (BLOCK_LENGTH + DIGEST_LENGTH) * 8L;
+
+    /**  */
+    private static final long[] IV = {
+            0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+            0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L };
+
+    /**  */
+    private static final long[] K = {
+            0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL,
+            0x3956c25bf348b538L, 0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L,
+            0xd807aa98a3030242L, 0x12835b0145706fbeL, 0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L,
+            0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L, 0xc19bf174cf692694L,
+            0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+            0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L,
+            0x983e5152ee66dfabL, 0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L,
+            0xc6e00bf33da88fc2L, 0xd5a79147930aa725L, 0x06ca6351e003826fL, 0x142929670a0e6e70L,
+            0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL, 0x53380d139d95b3dfL,
+            0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+            0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L,
+            0xd192e819d6ef5218L, 0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L,
+            0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L, 0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L,
+            0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L, 0x682e6ff3d6b2b8a3L,
+            0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+            0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL,
+            0xca273eceea26619cL, 0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L,
+            0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L, 0x113f9804bef90daeL, 0x1b710b35131c471bL,
+            0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL, 0x431d67c49c100d4cL,
+            0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L };
+
+    /** state after the inner pad block */
+    private final long[] innerState = new long[8];
+
+    /** state after the outer pad block */
+    private final long[] outerState = new long[8];
+
+    /** message schedule */
+    private final long[] w = new long[80];
+
+    /** the current U_i */
+    private final long[] u = new long[8];
+
+    /** the running T = U_1 ^ ... ^ U_i */
+    private final long[] t = new long[8];
+
+    /** scratch for the byte oriented first iteration */
+    private final byte[] buffer = new byte[BLOCK_LENGTH];
+
+    /**
+     *
+     *
+     * @param password
+     * @param salt
+     * @param iterations
+     * @param keyLength derived key length in bytes
+     * @return DK = PBKDF2(HMAC-SHA512, password, salt, iterations, keyLength)
+     */
+    public byte[] derive(byte[] password, byte[] salt, int iterations, int keyLength) {
+        if (iterations < 1 || keyLength < 1) {
+            throw new IllegalArgumentException("Iterations and key length must be positive");
+        }
+
+        init(password);
+
+        byte[] key = new byte[keyLength];
+        for (int block = 1, offset = 0; offset < keyLength; block++, offset += DIGEST_LENGTH) {
+            deriveBlock(salt, block, iterations);
+            for (int i = 0; i < DIGEST_LENGTH && offset + i < keyLength; i++) {
+                key[offset + i] = (byte) (t[i >>> 3] >>> (56 - ((i & 7) << 3)));
+            }
+        }
+
+        Arrays.fill(innerState, 0);
+        Arrays.fill(outerState, 0);
+        Arrays.fill(u, 0);
+        Arrays.fill(t, 0);
+        Arrays.fill(w, 0);
+        Arrays.fill(buffer, (byte) 0);
+        return key;
+    }
+
+    /**
+     * Absorbs the inner and outer key pads.
+     *
+     * @param password
+     */
+    private void init(byte[] password) {
+        byte[] key = password;
+        if (key.length > BLOCK_LENGTH) {
+            System.arraycopy(IV, 0, u, 0, 8);
+            hash(u, key, key.length, 0);
+            key = new byte[DIGEST_LENGTH];
+            store(u, key);
+        }
+
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            buffer[i] = (byte) ((i < key.length ? key[i] : 0) ^ 0x36);
+        }
+        System.arraycopy(IV, 0, innerState, 0, 8);
+        compress(innerState, buffer, 0);
+
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            buffer[i] = (byte) ((i < key.length ? key[i] : 0) ^ 0x5c);
+        }
+        System.arraycopy(IV, 0, outerState, 0, 8);
+        compress(outerState, buffer, 0);
+
+        if (key != password) {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    /**
+     * T_block = U_1 ^ U_2 ^ ... ^ U_iterations, left in {@link #t}.
+     *
+     * @param salt
+     * @param block
+     * @param iterations
+     */
+    private void deriveBlock(byte[] salt, int block, int iterations) {
+        // U_1 = HMAC(P, S || INT(block)), the only variable length message
+        byte[] message = Arrays.copyOf(salt, salt.length + 4);
+        message[salt.length] = (byte) (block >>> 24);
+        message[salt.length + 1] = (byte) (block >>> 16);
+        message[salt.length + 2] = (byte) (block >>> 8);
+        message[salt.length + 3] = (byte) block;
+
+        System.arraycopy(innerState, 0, u, 0, 8);
+        hash(u, message, message.length, BLOCK_LENGTH);
+        outer();
+        System.arraycopy(u, 0, t, 0, 8);
+
+        // U_i = HMAC(P, U_i-1), a single padded block on each side
+        for (int i = 1; i < iterations; i++) {
+            inner();
+            outer();
+            for (int j = 0; j < 8; j++) {
+                t[j] ^= u[j];
+            }
+        }
+    }
+
+    /**
+     * u = SHA-512 state of the inner pad followed by the 64 bytes in u.
+     */
+    private void inner() {
+        padDigestBlock();
+        System.arraycopy(innerState, 0, u, 0, 8);
+        compress(u);
+    }
+
+    /**
+     * u = SHA-512 of the outer pad followed by the 64 bytes in u.
+     */
+    private void outer() {
+        padDigestBlock();
+        System.arraycopy(outerState, 0, u, 0, 8);
+        compress(u);
+    }
+
+    /**
+     * Loads u as a padded 64 byte message that follows one key pad block.
+     */
+    private void padDigestBlock() {
+        System.arraycopy(u, 0, w, 0, 8);
+        w[8] = 0x8000000000000000L;
+        w[9] = 0;
+        w[10] = 0;
+        w[11] = 0;
+        w[12] = 0;
+        w[13] = 0;
+        w[14] = 0;
+        w[15] = PADDED_DIGEST_BITS;
+    }
+
+    /**
+     * Runs a whole message with its final padding through state.
+     *
+     * @param state
+     * @param message
+     * @param length
+     * @param prefix bytes already absorbed into state
+     */
+    private void hash(long[] state, byte[] message, int length, long prefix) {
+        int offset = 0;
+        for (; length - offset >= BLOCK_LENGTH; offset += BLOCK_LENGTH) {
+            compress(state, message, offset);
+        }
+
+        int remaining = length - offset;
+        Arrays.fill(buffer, (byte) 0);
+        System.arraycopy(message, offset, buffer, 0, remaining);
+        buffer[remaining] = (byte) 0x80;
+        if (remaining >= BLOCK_LENGTH - 16) {
+            compress(state, buffer, 0);
+            Arrays.fill(buffer, (byte) 0);
+        }
+
+        long bits = (prefix + length) * 8;
+        for (int i = 0; i < 8; i++) {
+            buffer[BLOCK_LENGTH - 1 - i] = (byte) (bits >>> (i << 3));
+        }
+        compress(state, buffer, 0);
+    }
+
+    /**
+     *
+     *
+     * @param state
+     * @param block
+     * @param offset
+     */
+    private void compress(long[] state, byte[] block, int offset) {
+        for (int i = 0; i < 16; i++) {
+            long word = 0;
+            for (int j = 0; j < 8; j++) {
+                word = (word << 8) | (block[offset + (i << 3) + j] & 0xff);
+            }
+            w[i] = word;
+        }
+        compress(state);
+    }
+
+    /**
+     * The SHA-512 compression function over the block already loaded in w[0..15].
+     *
+     * @param state
+     */
+    private void compress(long[] state) {
+        for (int i = 16; i < 80; i++) {
+            long w15 = w[i - 15], w2 = w[i - 2];
+            long s0 = Long.rotateRight(w15, 1) ^ Long.rotateRight(w15, 8) ^ (w15 >>> 7);
+            long s1 = Long.rotateRight(w2, 19) ^ Long.rotateRight(w2, 61) ^ (w2 >>> 6);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+
+        long a = state[0], b = state[1], c = state[2], d = state[3];
+        long e = state[4], f = state[5], g = state[6], h = state[7];
+        for (int i = 0; i < 80; i++) {
+            long s1 = Long.rotateRight(e, 14) ^ Long.rotateRight(e, 18) ^ Long.rotateRight(e, 41);
+            long ch = (e & f) ^ (~e & g);
+            long temp1 = h + s1 + ch + K[i] + w[i];
+            long s0 = Long.rotateRight(a, 28) ^ Long.rotateRight(a, 34) ^ Long.rotateRight(a, 39);
+            long maj = (a & b) ^ (a & c) ^ (b & c);
+            long temp2 = s0 + maj;
+            h = g;
+            g = f;
+            f = e;
+            e = d + temp1;
+            d = c;
+            c = b;
+            b = a;
+            a = temp1 + temp2;
+        }
+
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+        state[4] += e;
+        state[5] += f;
+        state[6] += g;
+        state[7] += h;
+    }
+
+    /**
+     *
+     *
+     * @param state
+     * @param out
+     */
+    private static void store(long[] state, byte[] out) {
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            out[i] = (byte) (state[i >>> 3] >>> (56 - ((i & 7) << 3)));
+        }
+    }
+}
@@ -103,6 +103,42 @@ public class Base58 {
         return Arrays.copyOfRange(decoded, outputStart - zeros, decoded.length);
     }
 
+    /**
+     * Decodes into a caller owned buffer of the expected length, for hot lookups.
+     *
+     * @param input 
+     * @param out receives the decoded bytes, right aligned
+     * @return false when the input has invalid characters or does not decode to exactly out.length bytes
+     */
+    public static boolean decode(CharSequence input, byte[] out) {
+        Arrays.fill(out, (byte) 0);
+        int zeros = 0;
+        while (zeros < input.length() && input.charAt(zeros) == '1') {
+            zeros++;
+        }
+        for (int i = zeros; i < input.length(); i++) {
+            char c = input.charAt(i);
+            int carry = c < 128 ? INDEXES[c] : -1;
+            if (carry < 0) {
+                return false;
+            }
+            for (int j = out.length - 1; j >= 0; j--) {
+                carry += (out[j] & 0xff) * 58;
+                out[j] = (byte) carry;
+                carry >>>= 8;
+            }
+            if (carry != 0) {
+                return false;
+            }
+        }
+        // as many leading zero bytes as leading '1's
+        int leading = 0;
+        while (leading < out.length && out[leading] == 0) {
+            leading++;
+        }
+        return leading == zeros;
+    }
+
     /**
      * 
      *
@@ -160,6 +196,34 @@ public class Base58 {
         return copyOfRange(combined, 1, 21);
     }
 
+    /**
+     * Base58Check decoding on the int digit path of {@link #decode(String)}, verifying
+     * the trailing 4 byte double SHA-256 checksum.
+     *
+     * @param input 
+     * @return the payload, without the checksum
+     */
+    public static byte[] decodeChecked(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c >= 128 || INDEXES[c] < 0) {
+                throw new IllegalArgumentException("Invalid base58 character at " + i);
+            }
+        }
+        byte[] decoded = decode(input);
+        if (decoded.length < 4) {
+            throw new IllegalArgumentException("Input too short for a checksum");
+        }
+        int length = decoded.length - 4;
+        byte[] checksum = Digests.sha256Twice(decoded, 0, length);
+        for (int i = 0; i < 4; i++) {
+            if (checksum[i] != decoded[length + i]) {
+                throw new IllegalArgumentException("Invalid checksum");
+            }
+        }
+        return Arrays.copyOf(decoded, length);
+    }
+
     /**
      * 
      *
@@ -11,6 +11,7 @@ import static java.util.Objects.isNull;
 import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.bouncycastle.util.encoders.Hex;
@@ -33,6 +34,19 @@ public class Bech32 {
     /**  */
     private static final int BECH32M_CONST = 0x2bc830a3;
     
+    /**  */
+    private static final int[] GENERATOR = { 0x3b6a57b2, 0x26508e6d, 0x1ea119fa, 0x3d4233dd, 0x2a1462b3 };
+    
+    /** alphabet index of each ASCII character, -1 when not in the alphabet */
+    private static final byte[] INDEXES = new byte[128];
+    static {
+        Arrays.fill(INDEXES, (byte) -1);
+        for (int i = 0; i < BECH32_ALPHABET.length(); i++) {
+            INDEXES[BECH32_ALPHABET.charAt(i)] = (byte) i;
+            INDEXES[Character.toUpperCase(BECH32_ALPHABET.charAt(i))] = (byte) i;
+        }
+    }
+    
     /**
      * 
      *
@@ -210,6 +224,106 @@ public class Bech32 {
         };
     }
     
+    /**
+     * Segwit address decoding straight into a caller owned buffer, with an int checksum
+     * and no intermediate lists or strings, for hot lookups. The human readable part is
+     * not compared against any network.
+     *
+     * @param address 
+     * @param program receives the witness program, at least 40 bytes
+     * @return the witness program length, -1 when the address is not a valid segwit address
+     */
+    public static int decodeWitnessProgram(CharSequence address, byte[] program) {
+        int length = address.length();
+        if (length > 90) {
+            return -1;
+        }
+        int position = -1;
+        boolean lower = false;
+        boolean upper = false;
+        for (int i = 0; i < length; i++) {
+            char c = address.charAt(i);
+            if (c < 33 || c > 126) {
+                return -1;
+            }
+            lower |= c >= 'a' && c <= 'z';
+            upper |= c >= 'A' && c <= 'Z';
+            if (c == '1') {
+                position = i;
+            }
+        }
+        if (position < 1 || position + 7 > length || (lower && upper)) {
+            return -1;
+        }
+
+        int checksum = 1;
+        for (int i = 0; i < position; i++) {
+            checksum = polymodStep(checksum, Character.toLowerCase(address.charAt(i)) >> 5);
+        }
+        checksum = polymodStep(checksum, 0);
+        for (int i = 0; i < position; i++) {
+            checksum = polymodStep(checksum, Character.toLowerCase(address.charAt(i)) & 31);
+        }
+
+        // witness version, then the program regrouped from 5 to 8 bits as it is read
+        int version = -1;
+        int accumulator = 0;
+        int bits = 0;
+        int programLength = 0;
+        for (int i = position + 1; i < length; i++) {
+            char c = address.charAt(i);
+            int value = c < 128 ? INDEXES[c] : -1;
+            if (value < 0) {
+                return -1;
+            }
+            checksum = polymodStep(checksum, value);
+            if (i >= length - 6) {
+                continue;
+            }
+            if (version < 0) {
+                version = value;
+                continue;
+            }
+            accumulator = (accumulator << 5) | value;
+            bits += 5;
+            if (bits >= 8) {
+                bits -= 8;
+                if (programLength == 40) {
+                    return -1;
+                }
+                program[programLength++] = (byte) (accumulator >>> bits);
+            }
+        }
+
+        if (version < 0 || version > 16 || bits >= 5 || (accumulator & ((1 << bits) - 1)) != 0
+                || programLength < 2) {
+            return -1;
+        }
+        if (version == 0 ? checksum != 1 || (programLength != 20 && programLength != 32)
+                : checksum != BECH32M_CONST) {
+            return -1;
+        }
+        return programLength;
+    }
+    
+    /**
+     * 
+     *
+     * @param checksum 
+     * @param value 
+     * @return 
+     */
+    private static int polymodStep(int checksum, int value) {
+        int top = checksum >>> 25;
+        checksum = ((checksum & 0x1ffffff) << 5) ^ value;
+        for (int i = 0; i < 5; i++) {
+            if (((top >>> i) & 1) != 0) {
+                checksum ^= GENERATOR[i];
+            }
+        }
+        return checksum;
+    }
+    
     /**
      * 
      *
@@ -0,0 +1,153 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ */
+package com.paymennt.crypto.lib;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+
+/**
+ * Source of the digest engines pooled by {@link Digests}.
+ *
+ * @author paymennt
+ */
+public enum DigestBackend {
+
+    /** {@link MessageDigest} from the installed providers, BouncyCastle for algorithms no provider has */
+    JCA {
+
+        @Override
+        public ExtendedDigest create(Algorithm algorithm) {
+            try {
+                return new JcaDigest(MessageDigest.getInstance(algorithm.jcaName), algorithm.blockLength);
+            } catch (NoSuchAlgorithmException e) {
+                return BOUNCY_CASTLE.create(algorithm);
+            }
+        }
+    },
+
+    /** BouncyCastle lightweight digests, no provider lookup at all */
+    BOUNCY_CASTLE {
+
+        @Override
+        public ExtendedDigest create(Algorithm algorithm) {
+            switch (algorithm) {
+            case SHA256:
+                return new SHA256Digest();
+            case SHA512:
+                return new SHA512Digest();
+            case RIPEMD160:
+            default:
+                return new RIPEMD160Digest();
+            }
+        }
+    };
+
+    /**
+     *
+     *
+     * @param algorithm
+     * @return a new, unshared digest engine
+     */
+    public abstract ExtendedDigest create(Algorithm algorithm);
+
+    /**
+     *
+     */
+    public enum Algorithm {
+
+        /**  */
+        SHA256("SHA-256", 64),
+
+        /**  */
+        SHA512("SHA-512", 128),
+
+        /**  */
+        RIPEMD160("RIPEMD160", 64);
+
+        /**  */
+        private final String jcaName;
+
+        /**  */
+        private final int blockLength;
+
+        /**
+         *
+         *
+         * @param jcaName
+         * @param blockLength
+         */
+        Algorithm(String jcaName, int blockLength) {
+            this.jcaName = jcaName;
+            this.blockLength = blockLength;
+        }
+    }
+
+    /**
+     * Adapts a {@link MessageDigest} to the BouncyCastle digest interface.
+     */
+    private static class JcaDigest implements ExtendedDigest {
+
+        /**  */
+        private final MessageDigest digest;
+
+        /**  */
+        private final int blockLength;
+
+        /**
+         *
+         *
+         * @param digest
+         * @param blockLength
+         */
+        JcaDigest(MessageDigest digest, int blockLength) {
+            this.digest = digest;
+            this.blockLength = blockLength;
+        }
+
+        @Override
+        public String getAlgorithmName() {
+            return digest.getAlgorithm();
+        }
+
+        @Override
+        public int getDigestSize() {
+            return digest.getDigestLength();
+        }
+
+        @Override
+        public int getByteLength() {
+            return blockLength;
+        }
+
+        @Override
+        public void update(byte in) {
+            digest.update(in);
+        }
+
+        @Override
+        public void update(byte[] in, int inOff, int len) {
+            digest.update(in, inOff, len);
+        }
+
+        @Override
+        public int doFinal(byte[] out, int outOff) {
+            try {
+                return digest.digest(out, outOff, digest.getDigestLength());
+            } catch (DigestException e) {
+                throw new IllegalArgumentException("Output buffer too short", e);
+            }
+        }
+
+        @Override
+        public void reset() {
+            digest.reset();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/************************************************************************
+ * Copyright PointCheckout, Ltd.
+ */
+package com.paymennt.crypto.lib;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import com.paymennt.crypto.lib.DigestBackend.Algorithm;
+
+/**
+ * Digest layer shared by {@code bip32.crypto.Hash}, {@link Sha256}, {@link Hash256},
+ * {@link Hash160} and both HMAC-SHA512 helpers.
+ * <p>
+ * Each thread keeps one engine per algorithm, created once by the {@link DigestBackend}
+ * and reset after every use, so hashing never looks up a provider or allocates an
+ * engine. The backend is the one named by {@link #BACKEND_PROPERTY} or, when unset or
+ * unknown, {@link #DEFAULT_BACKEND}: the JDK's SHA-2 engines are compiled to the CPU's
+ * SHA instructions where it has them, and RIPEMD-160, which the JDK lacks, falls back to
+ * BouncyCastle either way.
+ *
+ * @author paymennt
+ */
+public class Digests {
+
+    /** system property forcing the backend, {@code JCA} or {@code BOUNCY_CASTLE} */
+    public static final String BACKEND_PROPERTY = "com.paymennt.crypto.digest.backend";
+
+    /**  */
+    public static final DigestBackend DEFAULT_BACKEND = DigestBackend.JCA;
+
+    /**  */
+    private static final DigestBackend BACKEND = selectBackend();
+
+    /**  */
+    private static final ThreadLocal<Engines> ENGINES = ThreadLocal.withInitial(() -> new Engines(BACKEND));
+
+    /**
+     *
+     *
+     * @return
+     */
+    public static DigestBackend getBackend() {
+        return BACKEND;
+    }
+
+    /**
+     *
+     *
+     * @param input
+     * @return
+     */
+    public static byte[] sha256(byte[] input) {
+        return sha256(input, 0, input.length);
+    }
+
+    /**
+     *
+     *
+     * @param input
+     * @param offset
+     * @param length
+     * @return
+     */
+    public static byte[] sha256(byte[] input, int offset, int length) {
+        return digest(ENGINES.get().sha256, input, offset, length);
+    }
+
+    /**
+     *
+     *
+     * @param input
+     * @param offset
+     * @param length
+     * @return SHA-256(SHA-256(input))
+     */
+    public static byte[] sha256Twice(byte[] input, int offset, int length) {
+        Digest digest = ENGINES.get().sha256;
+        byte[] out = digest(digest, input, offset, length);
+        digest(digest, out, 0, out.length, out, 0);
+        return out;
+    }
+
+    /**
+     *
+     *
+     * @param input
+     * @return
+     */
+    public static byte[] sha512(byte[] input) {
+        return digest(ENGINES.get().sha512, input, 0, input.length);
+    }
+
+    /**
+     * SHA-512 into a caller's buffer, for hashes of secrets the caller zeroes afterwards.
+     *
+     * @param input
+     * @param out
+     * @param outOffset
+     */
+    public static void sha512(byte[] input, byte[] out, int outOffset) {
+        digest(ENGINES.get().sha512, input, 0, input.length, out, outOffset);
+    }
+
+    /**
+     *
+     *
+     * @param input
+     * @return
+     */
+    public static byte[] ripemd160(byte[] input) {
+        return digest(ENGINES.get().ripemd160, input, 0, input.length);
+    }
+
+    /**
+     *
+     *
+     * @param input
+     * @return RIPEMD-160(SHA-256(input))
+     */
+    public static byte[] hash160(byte[] input) {
+        Engines engines = ENGINES.get();
+        byte[] sha256 = digest(engines.sha256, input, 0, input.length);
+        return digest(engines.ripemd160, sha256, 0, sha256.length);
+    }
+
+    /**
+     * Keys the HMAC on every call, which suits its one-off uses such as master key
+     * generation; the per-node HMACs of child derivation are keyed once by
+     * {@code bip32.crypto.ChainCodeHmac}.
+     *
+     * @param key
+     * @param data
+     * @return HMAC-SHA512(Key = key, Data = data)
+     */
+    public static byte[] hmacSha512(byte[] key, byte[] data) {
+        HMac hMac = ENGINES.get().hmacSha512;
+        byte[] out = new byte[hMac.getMacSize()];
+        try {
+            hMac.init(new KeyParameter(key));
+            hMac.update(data, 0, data.length);
+            hMac.doFinal(out, 0);
+        } catch (RuntimeException e) {
+            hMac.reset();
+            throw e;
+        }
+        return out;
+    }
+
+    /**
+     *
+     *
+     * @param digest
+     * @param input
+     * @param offset
+     * @param length
+     * @return
+     */
+    private static byte[] digest(Digest digest, byte[] input, int offset, int length) {
+        byte[] out = new byte[digest.getDigestSize()];
+        digest(digest, input, offset, length, out, 0);
+        return out;
+    }
+
+    /**
+     * Hashes into out. An engine that failed half way is reset, so the next use of this
+     * thread's engine does not start from leftover input.
+     *
+     * @param digest
+     * @param input
+     * @param offset
+     * @param length
+     * @param out
+     * @param outOffset
+     */
+    private static void digest(Digest digest, byte[] input, int offset, int length, byte[] out, int outOffset) {
+        try {
+            digest.update(input, offset, length);
+            digest.doFinal(out, outOffset);
+        } catch (RuntimeException e) {
+            digest.reset();
+            throw e;
+        }
+    }
+
+    /**
+     *
+     *
+     * @return the backend named by {@link #BACKEND_PROPERTY}, {@link #DEFAULT_BACKEND} when
+     *         it is unset or unknown
+     */
+    private static DigestBackend selectBackend() {
+        String name = System.getProperty(BACKEND_PROPERTY);
+        if (name != null) {
+            try {
+                return DigestBackend.valueOf(name.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                // an unknown backend must not fail class loading, use the default instead
+            }
+        }
+        return DEFAULT_BACKEND;
+    }
+
+    /**
+     * The engines of one thread.
+     */
+    private static class Engines {
+
+        /**  */
+        private final ExtendedDigest sha256;
+
+        /**  */
+        private final ExtendedDigest sha512;
+
+        /**  */
+        private final ExtendedDigest ripemd160;
+
+        /**  */
+        private final HMac hmacSha512;
+
+        /**
+         *
+         *
+         * @param backend
+         */
+        Engines(DigestBackend backend) {
+            this.sha256 = backend.create(Algorithm.SHA256);
+            this.sha512 = backend.create(Algorithm.SHA512);
+            this.ripemd160 = backend.create(Algorithm.RIPEMD160);
+            this.hmacSha512 = new HMac(backend.create(Algorithm.SHA512));
+        }
+    }
+}
@@ -3,10 +3,6 @@
  */
 package com.paymennt.crypto.lib;
 
-import org.bouncycastle.crypto.macs.HMac;
-import org.bouncycastle.crypto.params.KeyParameter;
-import org.bouncycastle.crypto.util.DigestFactory;
-
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -34,11 +30,6 @@ public class HMacSha512 {
      * @return 
      */
     public static byte[] hash(byte[] key, byte[] data) {
-        HMac hMac = new HMac(DigestFactory.createSHA512());
-        hMac.init(new KeyParameter(key));
-        byte[] result = new byte[hMac.getMacSize()];
-        hMac.update(data, 0, data.length);
-        hMac.doFinal(result, 0);
-        return result;
+        return Digests.hmacSha512(key, data);
     }
 }
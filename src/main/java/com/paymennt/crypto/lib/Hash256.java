@@ -5,10 +5,6 @@ package com.paymennt.crypto.lib;
 
 import org.bouncycastle.util.encoders.Hex;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.NoSuchElementException;
-
 /**
  * @author paymennt
  * 
@@ -22,13 +18,7 @@ public class Hash256 {
      * @return 
      */
     public static byte[] hash(byte[] key) {
-        MessageDigest sha256 = null;
-        try {
-            sha256 = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new NoSuchElementException("Algorithm SHA-256 not found. You may need to add BouncyCastleProvider as a security provider in your project.");
-        }
-        return sha256.digest(sha256.digest(key));
+        return Digests.sha256Twice(key, 0, key.length);
     }
 
     /**
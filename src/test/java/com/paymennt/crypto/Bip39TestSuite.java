@@ -1,19 +1,79 @@
 package com.paymennt.crypto;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.params.KeyParameter;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.util.encoders.Hex;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.paymennt.crypto.bip32.Network;
+import com.paymennt.crypto.bip32.crypto.FixedBaseTable;
+import com.paymennt.crypto.bip32.crypto.Hash;
+import com.paymennt.crypto.bip32.crypto.HdUtil;
+import com.paymennt.crypto.bip32.crypto.Scalar256;
+import com.paymennt.crypto.bip32.crypto.Secp256k1;
+import com.paymennt.crypto.bip32.exception.CryptoException;
 import com.paymennt.crypto.bip32.wallet.AbstractWallet;
+import com.paymennt.crypto.bip32.wallet.AddressFilter;
+import com.paymennt.crypto.bip32.wallet.AddressIndex;
+import com.paymennt.crypto.bip32.wallet.AddressStore;
 import com.paymennt.crypto.bip32.wallet.AbstractWallet.Chain;
 import com.paymennt.crypto.bip32.wallet.AbstractWallet.Purpose;
+import com.paymennt.crypto.bip32.wallet.DerivationEngine;
+import com.paymennt.crypto.bip32.wallet.DerivationPath;
+import com.paymennt.crypto.bip32.wallet.ExtendedKey;
+import com.paymennt.crypto.bip32.wallet.GapLimitScanner;
+import com.paymennt.crypto.bip32.wallet.HdAddress;
+import com.paymennt.crypto.bip32.wallet.HdKeyGenerator;
+import com.paymennt.crypto.bip32.wallet.PublicWallet;
+import com.paymennt.crypto.bip32.wallet.WalletFactory;
+import com.paymennt.crypto.bip32.wallet.key.HdKey;
+import com.paymennt.crypto.bip32.wallet.key.HdPrivateKey;
+import com.paymennt.crypto.bip32.wallet.key.HdPublicKey;
+import com.paymennt.crypto.bip39.BatchSeedGenerator;
+import com.paymennt.crypto.bip39.InvalidMnemonicException;
+import com.paymennt.crypto.bip39.MnemonicGenerator;
+import com.paymennt.crypto.bip39.Pbkdf2HmacSha512;
+import com.paymennt.crypto.lib.Base58;
 import com.paymennt.crypto.lib.Bech32;
+import com.paymennt.crypto.lib.DigestBackend;
+import com.paymennt.crypto.lib.DigestBackend.Algorithm;
+import com.paymennt.crypto.lib.Digests;
 import com.paymennt.crypto.lib.Hash160;
 
 /**
@@ -36,7 +96,13 @@ public class Bip39TestSuite {
             @Override
             public String getAddress(int account, Chain chain, Integer index) {
 
-                byte[] hash160 = Hash160.hash(getPublicKey(account, chain, index).getPublicKey());
+                return encode(getHdAddress(account, chain, index));
+            }
+
+            @Override
+            protected String encode(HdAddress leaf) {
+
+                byte[] hash160 = Hash160.hash(leaf.getPublicKey().getPublicKey());
                 return Bech32.encode("bc", 0, hash160);
             }
         };
@@ -59,4 +125,763 @@ public class Bip39TestSuite {
                 Hex.toHexString(wallet.getPublicKey(0, Chain.EXTERNAL, 11).getPublicKey()));
     }
 
+    @Test
+    public void testChainCacheReusesNodes() {
+
+        long misses = wallet.getChainCache().getMisses();
+        long hits = wallet.getChainCache().getHits();
+
+        for (int index = 0; index < 5; index++)
+            wallet.getPublicKey(7, Chain.CHANGE, index);
+
+        assertEquals(misses + 1, wallet.getChainCache().getMisses());
+        assertEquals(hits + 4, wallet.getChainCache().getHits());
+
+        // the account node is cached with the first chain and shared by the second
+        DerivationPath account = DerivationPath.parse("m/84'/0'/7'");
+        HdAddress accountNode = wallet.getChainCache().peek(account);
+        assertTrue(accountNode != null);
+        wallet.getPublicKey(7, Chain.EXTERNAL, 0);
+        assertTrue(accountNode == wallet.getChainCache().peek(account));
+        assertTrue(wallet.getChainCache().peek(account.child(0, false)) != null);
+    }
+
+    @Test
+    public void testWalletAddressRange() {
+
+        String[] addresses = wallet.getAddresses(0, Chain.EXTERNAL, 4, 3);
+        assertEquals(3, addresses.length);
+        assertEquals("bc1qn944d0p7k2rfmw3qev6j9v0p93dplw4t2lc7lv", addresses[1]);
+
+        assertEquals("027476ebfc5fadf2e44df5d53d04eef907a591a74c9d104836dd85ffd1cf8555e5",
+                Hex.toHexString(wallet.getPublicKeys(0, Chain.EXTERNAL, 10, 2)[1].getPublicKey()));
+
+        // the leaves of a range are encoded directly, with a single lookup of the chain node
+        long lookups = wallet.getChainCache().getHits() + wallet.getChainCache().getMisses();
+        wallet.getAddresses(0, Chain.EXTERNAL, 0, 10);
+        assertEquals(lookups + 1, wallet.getChainCache().getHits() + wallet.getChainCache().getMisses());
+    }
+
+    @Test
+    public void testParallelDerivation() {
+
+        DerivationEngine engine = new DerivationEngine(wallet, ForkJoinPool.commonPool(), 4);
+        List<String[]> addresses = engine.deriveAddresses(List.of(
+                new DerivationEngine.Request(0, Chain.EXTERNAL, 0, 20),
+                new DerivationEngine.Request(1, Chain.CHANGE, 3, 9)));
+
+        assertArrayEquals(wallet.getAddresses(0, Chain.EXTERNAL, 0, 20), addresses.get(0));
+        assertArrayEquals(wallet.getAddresses(1, Chain.CHANGE, 3, 9), addresses.get(1));
+        assertArrayEquals(wallet.streamAddresses(1, Chain.CHANGE, 3, 9).toArray(String[]::new), addresses.get(1));
+        assertEquals("bc1qn944d0p7k2rfmw3qev6j9v0p93dplw4t2lc7lv", addresses.get(0)[5]);
+        try {
+            wallet.getAddress(wallet.getChainCache().peek(DerivationPath.parse("m/84'/0'/0'/0")));
+            fail();
+        } catch (CryptoException e) {
+            // only leaves encode to an address
+        }
+    }
+
+    @Test
+    public void testPublicWalletAddress() {
+
+        PublicWallet publicWallet = new PublicWallet(wallet.getAccountPublicKey(0), CoinType.BITCOIN) {
+
+            @Override
+            public String getAddress(Chain chain, int index) {
+
+                return encode(chain, index, getPublicKey(chain, index));
+            }
+
+            @Override
+            protected String encode(Chain chain, int index, HdPublicKey key) {
+
+                return Bech32.encode("bc", 0, Hash160.hash(key.getPublicKey()));
+            }
+        };
+
+        assertEquals("bc1qn944d0p7k2rfmw3qev6j9v0p93dplw4t2lc7lv", publicWallet.getAddress(Chain.EXTERNAL, 5));
+        assertArrayEquals(wallet.getAddresses(0, Chain.CHANGE, 0, 5), publicWallet.getAddresses(Chain.CHANGE, 0, 5));
+        assertArrayEquals(wallet.getAddresses(0, Chain.EXTERNAL, 3, 70),
+                publicWallet.streamAddresses(Chain.EXTERNAL, 3, 70).toArray(String[]::new));
+
+        // batch-normalized ranges match the one-by-one derivations, public and private
+        HdPublicKey[] fromPrivate = wallet.getPublicKeys(0, Chain.CHANGE, 3, 7);
+        HdPublicKey[] fromPublic = publicWallet.getPublicKeys(Chain.CHANGE, 3, 7);
+        for (int i = 0; i < 7; i++) {
+            assertArrayEquals(wallet.getPublicKey(0, Chain.CHANGE, 3 + i).getPublicKey(), fromPrivate[i].getPublicKey());
+            assertEquals(ExtendedKey.encode(fromPrivate[i]), ExtendedKey.encode(fromPublic[i]));
+        }
+
+        PublicWallet restored = new PublicWallet(ExtendedKey.encode(wallet.getAccountPublicKey(0)), CoinType.BITCOIN) {
+
+            @Override
+            public String getAddress(Chain chain, int index) {
+
+                return Bech32.encode("bc", 0, Hash160.hash(getPublicKey(chain, index).getPublicKey()));
+            }
+        };
+        assertEquals("bc1qn944d0p7k2rfmw3qev6j9v0p93dplw4t2lc7lv", restored.getAddress(Chain.EXTERNAL, 5));
+
+        try {
+            new PublicWallet(ExtendedKey.encode(wallet.getPublicKey(DerivationPath.parse("m/84'/0'"))), CoinType.BITCOIN) {
+
+                @Override
+                public String getAddress(Chain chain, int index) {
+
+                    return null;
+                }
+            };
+            fail();
+        } catch (CryptoException e) {
+            // a coin level xpub would hand out the addresses of m/84'/0'/0 and m/84'/0'/1
+        }
+    }
+
+    @Test
+    public void testSeedFromWordlist() {
+
+        // BIP39 test vector, passphrase TREZOR
+        String words = "abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon about";
+        assertEquals("c55257c360c07c72029aebc1b53c05ed0362ada38ead3e3e9efa3708e53495531f09a6987599d18264c1e1c92f2cf141630c7a3c4ab7c81b2f001698e7463b04",
+                Hex.toHexString(MnemonicGenerator.getSeedFromWordlist(words, "TREZOR")));
+    }
+
+    @Test
+    public void testPbkdf2MatchesJca() throws Exception {
+
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
+        Pbkdf2HmacSha512 pbkdf2 = new Pbkdf2HmacSha512();
+        Random random = new Random(84);
+
+        // password and salt lengths around the 128 byte block and the 112 byte padding limit
+        for (int length : new int[] { 1, 64, 111, 112, 123, 124, 128, 129, 300 }) {
+            char[] password = new char[length + 1];
+            for (int i = 0; i < password.length; i++)
+                password[i] = (char) ('a' + random.nextInt(26));
+            byte[] salt = new byte[length];
+            random.nextBytes(salt);
+
+            for (int keyLength : new int[] { 64, 100 }) {
+                byte[] expected = factory.generateSecret(new PBEKeySpec(password, salt, 3, keyLength * 8)).getEncoded();
+                assertArrayEquals(expected,
+                        pbkdf2.derive(new String(password).getBytes(StandardCharsets.UTF_8), salt, 3, keyLength));
+            }
+        }
+    }
+
+    @Test
+    public void testDigestBackends() {
+
+        Random random = new Random(7);
+        for (Algorithm algorithm : Algorithm.values()) {
+            ExtendedDigest jca = DigestBackend.JCA.create(algorithm);
+            ExtendedDigest bouncyCastle = DigestBackend.BOUNCY_CASTLE.create(algorithm);
+            assertEquals(bouncyCastle.getDigestSize(), jca.getDigestSize());
+            assertEquals(bouncyCastle.getByteLength(), jca.getByteLength());
+
+            for (int length : new int[] { 0, 1, 33, 64, 65, 128, 1000 }) {
+                byte[] input = new byte[length];
+                random.nextBytes(input);
+                byte[] expected = new byte[bouncyCastle.getDigestSize()];
+                byte[] actual = new byte[jca.getDigestSize()];
+                bouncyCastle.update(input, 0, length);
+                bouncyCastle.doFinal(expected, 0);
+                jca.update(input, 0, length);
+                jca.doFinal(actual, 0);
+                assertArrayEquals(algorithm + " " + length, expected, actual);
+            }
+        }
+
+        byte[] key = "Bitcoin seed".getBytes(StandardCharsets.US_ASCII);
+        byte[] data = Hex.decode("000102030405060708090a0b0c0d0e0f");
+        byte[] expected = null;
+        for (DigestBackend backend : DigestBackend.values()) {
+            HMac hMac = new HMac(backend.create(Algorithm.SHA512));
+            hMac.init(new KeyParameter(key));
+            hMac.update(data, 0, data.length);
+            byte[] out = new byte[hMac.getMacSize()];
+            hMac.doFinal(out, 0);
+            if (expected != null)
+                assertArrayEquals(expected, out);
+            expected = out;
+        }
+        assertArrayEquals(expected, Digests.hmacSha512(key, data));
+
+        // the backend is fixed unless the property names another one
+        if (System.getProperty(Digests.BACKEND_PROPERTY) == null)
+            assertEquals(Digests.DEFAULT_BACKEND, Digests.getBackend());
+    }
+
+    @Test
+    public void testMnemonicValidation() {
+
+        assertEquals("00000000000000000000000000000000", Hex.toHexString(MnemonicGenerator.getEntropy(
+                "abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon about")));
+        assertEquals("ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff", Hex.toHexString(MnemonicGenerator
+                .getEntropy("zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo zoo vote")));
+
+        try {
+            MnemonicGenerator.getSeedFromWordlist(
+                    "abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon", null);
+            fail();
+        } catch (InvalidMnemonicException e) {
+            assertArrayEquals(new int[] { 11 }, e.getWordPositions());
+        }
+
+        try {
+            MnemonicGenerator.getSeedFromWordlist(
+                    "abandon abandn abandon abandon abandon abandon abandon abandon abandon abandonn abandon about", null);
+            fail();
+        } catch (InvalidMnemonicException e) {
+            assertArrayEquals(new int[] { 1, 9 }, e.getWordPositions());
+        }
+    }
+
+    @Test
+    public void testBatchSeeds() {
+
+        String about = "abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon about";
+        String bad = "abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon";
+        String words = "chase forward bone horn faith kitten steel bind mutual tide wreck novel priority card saddle";
+        List<BatchSeedGenerator.Request> requests = Arrays.asList(new BatchSeedGenerator.Request(about, "TREZOR"),
+                new BatchSeedGenerator.Request(bad, null), new BatchSeedGenerator.Request(words, null),
+                new BatchSeedGenerator.Request(words, "pass"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<BatchSeedGenerator.Result> results = new BatchSeedGenerator(executor, 1).generate(requests);
+            assertEquals(4, results.size());
+            assertEquals("c55257c360c07c72029aebc1b53c05ed0362ada38ead3e3e9efa3708e53495531f09a6987599d18264c1e1c92f2cf141630c7a3c4ab7c81b2f001698e7463b04",
+                    Hex.toHexString(results.get(0).getSeed()));
+            assertTrue(results.get(1).getError() instanceof InvalidMnemonicException);
+            assertArrayEquals(MnemonicGenerator.getSeedFromWordlist(words, null), results.get(2).getSeed());
+            assertArrayEquals(MnemonicGenerator.getSeedFromWordlist(words, "pass"), results.get(3).getSeed());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWalletFactory() {
+
+        String words = "chase forward bone horn faith kitten steel bind mutual tide wreck novel priority card saddle";
+        WalletFactory<Bip84Wallet> factory = new WalletFactory<>(Purpose.BIP84, Network.MAINNET, CoinType.BITCOIN,
+                Bip84Wallet::new, 1, 1, TimeUnit.HOURS);
+
+        assertEquals("bc1qn944d0p7k2rfmw3qev6j9v0p93dplw4t2lc7lv", factory.open(words, "kitten").getAddress(0, Chain.EXTERNAL, 5));
+        assertEquals("bc1qn944d0p7k2rfmw3qev6j9v0p93dplw4t2lc7lv", factory.open(words, "kitten").getAddress(0, Chain.EXTERNAL, 5));
+        assertEquals(1, factory.getMisses());
+        assertEquals(1, factory.getHits());
+
+        // a wallet keeps working after its cached root is evicted and zeroed
+        Bip84Wallet opened = factory.open(words, "kitten");
+        factory.open(words, "other");
+        assertEquals(1, factory.getEvictions());
+        assertEquals("bc1qn944d0p7k2rfmw3qev6j9v0p93dplw4t2lc7lv", opened.getAddress(0, Chain.EXTERNAL, 5));
+
+        // clearing leaves no key material in the nodes the cache owned
+        assertEquals("bc1qn944d0p7k2rfmw3qev6j9v0p93dplw4t2lc7lv", factory.open(words, "kitten").getAddress(0, Chain.EXTERNAL, 5));
+        List<HdAddress> cached = new ArrayList<>();
+        for (Object entry : ((Map<?, ?>) field(factory, WalletFactory.class, "roots")).values()) {
+            cached.add((HdAddress) field(entry, entry.getClass(), "rootAddress"));
+        }
+        assertEquals(1, cached.size());
+        factory.clear();
+        assertEquals(0, factory.size());
+        for (HdAddress address : cached) {
+            Object privateKey = field(address, HdAddress.class, "privateKey");
+            byte[] data = (byte[]) field(privateKey, HdKey.class, "data");
+            int offset = (Integer) field(privateKey, HdKey.class, "offset");
+            for (int i = offset + 13; i < offset + 78; i++) {
+                assertEquals(0, data[i]);
+            }
+            assertEquals(null, field(privateKey, HdKey.class, "fingerprintSource"));
+            assertEquals(null, field(address, HdAddress.class, "chainHmac"));
+        }
+    }
+
+    private static Object field(Object target, Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(target);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class Bip84Wallet extends AbstractWallet {
+
+        Bip84Wallet(HdAddress rootAddress) {
+            super(rootAddress);
+        }
+
+        Bip84Wallet(byte[] extendedKey) {
+            super(extendedKey, Purpose.BIP84, CoinType.BITCOIN);
+        }
+
+        @Override
+        public String getAddress(int account, Chain chain, Integer index) {
+
+            return encode(getHdAddress(account, chain, index));
+        }
+
+        @Override
+        protected String encode(HdAddress leaf) {
+
+            byte[] hash160 = Hash160.hash(leaf.getPublicKey().getPublicKey());
+            return Bech32.encode("bc", 0, hash160);
+        }
+    }
+
+    @Test
+    public void testExtendedKeys() {
+
+        // BIP32 test vector 1, m/0'/1/2'
+        String xprv = "xprv9z4pot5VBttmtdRTWfWQmoH1taj2axGVzFqSb8C9xaxKymcFzXBDptWmT7FwuEzG3ryjH4ktypQSAewRiNMjANTtpgP4mLTj34bhnZX7UiM";
+        String xpub = "xpub6D4BDPcP2GT577Vvch3R8wDkScZWzQzMMUm3PWbmWvVJrZwQY4VUNgqFJPMM3No2dFDFGTsxxpG5uJh7n7epu4trkrX7x7DogT5Uv6fcLW5";
+        assertEquals(xprv, ExtendedKey.encode(ExtendedKey.getAddress(ExtendedKey.decode(xprv), CoinType.BITCOIN, null).getPrivateKey()));
+        assertEquals(xpub, ExtendedKey.encode(ExtendedKey.getPublicKey(ExtendedKey.decode(xprv), CoinType.BITCOIN)));
+        assertEquals(xpub, ExtendedKey.encode(ExtendedKey.getPublicKey(ExtendedKey.decode(xpub), CoinType.BITCOIN)));
+
+        // account level wallet restored from its xprv
+        AbstractWallet restored = new AbstractWallet(ExtendedKey.encode(wallet.getAccountPrivateKey(0)), Purpose.BIP84,
+                CoinType.BITCOIN) {
+
+            @Override
+            public String getAddress(int account, Chain chain, Integer index) {
+
+                byte[] hash160 = Hash160.hash(getPublicKey(account, chain, index).getPublicKey());
+                return Bech32.encode("bc", 0, hash160);
+            }
+        };
+        assertEquals("bc1qn944d0p7k2rfmw3qev6j9v0p93dplw4t2lc7lv", restored.getAddress(0, Chain.EXTERNAL, 5));
+        assertEquals(wallet.getPath(0, Chain.EXTERNAL, 5), restored.getPath(0, Chain.EXTERNAL, 5));
+        try {
+            restored.getAddress(1, Chain.EXTERNAL, 5);
+            fail();
+        } catch (CryptoException e) {
+            // account level wallets only hold their own account
+        }
+
+        try {
+            ExtendedKey.decode(xpub.substring(0, xpub.length() - 1) + "6");
+            fail();
+        } catch (CryptoException e) {
+            // checksum mismatch
+        }
+
+        // coin level keys must be the key of the wallet's coin
+        HdAddress master = HdKeyGenerator.getAddressFromSeed(Hex.decode("000102030405060708090a0b0c0d0e0f"),
+                Network.MAINNET, CoinType.BITCOIN);
+        byte[] coinKey = HdKeyGenerator.getAddress(master, DerivationPath.parse("m/84'/0'")).getPrivateKey().serialize();
+        assertEquals("m/84'/0'/0'/1/2", new Bip84Wallet(coinKey).getPath(0, Chain.CHANGE, 2));
+        for (byte[] invalid : new byte[][] { Arrays.copyOf(coinKey, 8),
+                HdKeyGenerator.getAddress(master, DerivationPath.parse("m/84'/1'")).getPrivateKey().serialize() }) {
+            try {
+                new Bip84Wallet(invalid);
+                fail();
+            } catch (CryptoException e) {
+                // too short, or the key of another coin
+            }
+        }
+    }
+
+    @Test
+    public void testDerivationPath() {
+
+        DerivationPath path = DerivationPath.parse("m/84h/0'/0'/0/5");
+        assertEquals("m/84'/0'/0'/0/5", path.toString());
+        assertEquals(DerivationPath.of(84 | DerivationPath.HARDENED, DerivationPath.HARDENED, DerivationPath.HARDENED, 0, 5), path);
+        assertTrue(path.startsWith(path.prefix(3)));
+        assertEquals(wallet.getPath(0, Chain.EXTERNAL, 5), path.toString());
+        assertArrayEquals(wallet.getPublicKey(0, Chain.EXTERNAL, 5).getPublicKey(),
+                wallet.getPublicKey(path).getPublicKey());
+
+        // any path below the root node is walked from its closest cached ancestor, its parent cached
+        long misses = wallet.getChainCache().getMisses();
+        long hits = wallet.getChainCache().getHits();
+        DerivationPath change = DerivationPath.parse("m/84'/0'/1234'/1");
+        HdAddress master = HdKeyGenerator.getAddressFromSeed(MnemonicGenerator.getSeedFromWordlist(
+                "chase forward bone horn faith kitten steel bind mutual tide wreck novel priority card saddle", "kitten"),
+                Network.MAINNET, CoinType.BITCOIN);
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(
+                    HdKeyGenerator.getAddress(master, change.child(i, false))
+                            .getPublicKey().getPublicKey(),
+                    wallet.getPublicKey(change.child(i, false)).getPublicKey());
+        }
+        assertEquals(misses + 1, wallet.getChainCache().getMisses());
+        assertEquals(hits + 4, wallet.getChainCache().getHits());
+
+        // the wallet does not keep the master node, paths of another purpose are rejected
+        for (String outside : new String[] { "m", "m/84'", "m/86'/0'/0'/0/0" }) {
+            try {
+                wallet.getPublicKey(DerivationPath.parse(outside));
+                fail(outside);
+            } catch (CryptoException e) {
+                // not below m/84'/0'
+            }
+        }
+
+        try {
+            DerivationPath.parse("84'/0'");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // must start at the master node
+        }
+    }
+
+    @Test
+    public void testLazyPublicKeys() {
+
+        // BIP32 test vector 1, m/0'/1/2' walked from the seed, public keys and parent
+        // fingerprints only computed when the key is serialized
+        HdAddress master = HdKeyGenerator.getAddressFromSeed(Hex.decode("000102030405060708090a0b0c0d0e0f"),
+                Network.MAINNET, CoinType.BITCOIN);
+        HdAddress address = HdKeyGenerator.getAddress(master, DerivationPath.parse("m/0'/1/2'"));
+        assertEquals("xprv9z4pot5VBttmtdRTWfWQmoH1taj2axGVzFqSb8C9xaxKymcFzXBDptWmT7FwuEzG3ryjH4ktypQSAewRiNMjANTtpgP4mLTj34bhnZX7UiM",
+                ExtendedKey.encode(address.getPrivateKey()));
+        assertEquals("xpub6D4BDPcP2GT577Vvch3R8wDkScZWzQzMMUm3PWbmWvVJrZwQY4VUNgqFJPMM3No2dFDFGTsxxpG5uJh7n7epu4trkrX7x7DogT5Uv6fcLW5",
+                ExtendedKey.encode(address.getPublicKey()));
+
+        // the fingerprint of a hardened child, taken from its parent when the child is derived
+        HdAddress parent = HdKeyGenerator.getAddress(master, DerivationPath.parse("m/0'/1"));
+        HdAddress child = HdKeyGenerator.getAddress(parent, 2, true);
+        assertEquals("xprv9z4pot5VBttmtdRTWfWQmoH1taj2axGVzFqSb8C9xaxKymcFzXBDptWmT7FwuEzG3ryjH4ktypQSAewRiNMjANTtpgP4mLTj34bhnZX7UiM",
+                ExtendedKey.encode(child.getPrivateKey()));
+    }
+
+    @Test
+    public void testEd25519Derivation() {
+
+        // SLIP-10 ed25519 test vector 1: chain code, private key and public key data
+        String[][] vectors = {
+                { "m", "90046a93de5380a72b5e45010748567d5ea02bbf6522f979e05c0d8d8ca9fffb",
+                        "2b4be7f19ee27bbf30c667b642d5f4aa69fd169872f8fc3059c08ebae2eb19e7",
+                        "00a4b2856bfec510abab89753fac1ac0e1112364e7d250545963f135f2a33188ed" },
+                { "m/0'", "8b59aa11380b624e81507a27fedda59fea6d0b779a778918a2fd3590e16e9c69",
+                        "68e0fe46dfb67e368c75379acec591dad19df3cde26e63b93a8e704f1dade7a3",
+                        "008c8a13df77a28f3445213a0f432fde644acaa215fc72dcdf300d5efaa85d350c" },
+                { "m/0'/1'", "a320425f77d1b5c2505a6b1b27382b37368ee640e3557c315416801243552f14",
+                        "b1d0bad404bf35da785a64ca1ac54b2617211d2777696fbffaf208f746ae84f2",
+                        "001932a5270f335bed617d5b935c80aedb1a35bd9fc1e31acafd5372c30f5c1187" },
+                { "m/0'/1'/2'", "2e69929e00b5ab250f49c3fb1c12f252de4fed2c1db88387094a0f8c4c9ccd6c",
+                        "92a5b23c0b8a99e37d07df3fb9966917f5d06e02ddbd909c7e184371463e9fc9",
+                        "00ae98736566d30ed0e9d2f4486a64bc95740d89c7db33f52121f8ea8f76ff0fc1" },
+                { "m/0'/1'/2'/2'", "8f6d87f93d750e0efccda017d662a1b31a266e4a6f5993b15f5c1f07f74dd5cc",
+                        "30d1dc7e5fc04c31219ab25a27ae00b50f6fd66622f6e9c913253d6511d1e662",
+                        "008abae2d66361c879b900d204ad2cc4984fa2aa344dd7ddc46007329ac76c429c" },
+                { "m/0'/1'/2'/2'/1000000000'", "68789923a0cac2cd5a29172a475fe9e0fb14cd6adb5ad98a3fa70333e7afa230",
+                        "8f94d394a8e8fd6b1bc2f3f49f5c47e385281d5c17e65324b0f62483e37e8793",
+                        "003c24da049451555d51a7014a37337aa4e12d41e485abccfa46b47dfb2af54b7a" } };
+
+        HdAddress master = HdKeyGenerator.getAddressFromSeed(Hex.decode("000102030405060708090a0b0c0d0e0f"),
+                Network.MAINNET, CoinType.SOLANA);
+        for (String[] vector : vectors) {
+            HdAddress address = HdKeyGenerator.getAddress(master, DerivationPath.parse(vector[0]));
+            assertEquals(vector[0], vector[1], Hex.toHexString(address.getPrivateKey().getChainCode()));
+            assertEquals(vector[0], vector[2], Hex.toHexString(address.getPrivateKey().getPrivateKey()));
+            assertEquals(vector[0], vector[3], Hex.toHexString(address.getPublicKey().getKeyData()));
+            assertEquals(vector[0], vector[1], Hex.toHexString(address.getPublicKey().getChainCode()));
+        }
+
+        // addresses of the wallets built before the derivation rework
+        String words = "chase forward bone horn faith kitten steel bind mutual tide wreck novel priority card saddle";
+        AbstractWallet solana = new AbstractWallet(words, "kitten", Purpose.BIP44, Network.MAINNET, CoinType.SOLANA) {
+
+            @Override
+            public String getAddress(int account, Chain chain, Integer index) {
+
+                return Base58.encode(getPublicKey(account, chain, index).getPublicKey());
+            }
+        };
+        assertEquals("E5mWq2YhThSxtZfupvbPr5iMxW8TXSNaq9pWN1zfi3Kx", solana.getAddress(0, Chain.EXTERNAL, 0));
+        assertArrayEquals(new String[] { "E5mWq2YhThSxtZfupvbPr5iMxW8TXSNaq9pWN1zfi3Kx",
+                "4zw81YVdWfEM1djnwKi4u9rDgJLcrjhXNv1gocq1FA48", "2WDjyDLyYda8bKVjTAV2fD4YYQQisi87V2Ax8ZwLryo4" },
+                solana.getAddresses(0, Chain.EXTERNAL, 0, 3));
+
+        AbstractWallet semux = new AbstractWallet(words, "kitten", Purpose.BIP44, Network.MAINNET, CoinType.SEMUX) {
+
+            @Override
+            public String getAddress(int account, Chain chain, Integer index) {
+
+                return "0x" + Hex.toHexString(Hash.h160(getPublicKey(account, chain, index).getPublicKey()));
+            }
+        };
+        assertEquals("m/44'/7562605'/0'/0'/2'", semux.getPath(0, Chain.EXTERNAL, 2));
+        assertArrayEquals(new String[] { "0x301eb13be1e2cc7b96320ac6505612350233e604",
+                "0xeaee85667f81b3a7f56349341b13f81293afb605", "0xb65242d9f33581e685f7d0bb71e43f95e79e047f" },
+                semux.getAddresses(0, Chain.EXTERNAL, 0, 3));
+    }
+
+    @Test
+    public void testScalar256() {
+
+        BigInteger n = Secp256k1.getN();
+        BigInteger[] edges = { BigInteger.ZERO, BigInteger.ONE, n.subtract(BigInteger.ONE), n.shiftRight(1),
+                BigInteger.ONE.shiftLeft(255) };
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            BigInteger a = i < edges.length ? edges[i] : new BigInteger(256, random).mod(n);
+            BigInteger b = i < edges.length ? n.subtract(BigInteger.ONE) : new BigInteger(256, random).mod(n);
+
+            Scalar256 sum = Scalar256.fromBytes(HdUtil.ser256(a), 0).addModN(Scalar256.fromBytes(HdUtil.ser256(b), 0));
+            assertEquals(a.add(b).mod(n), sum.toBigInteger());
+            assertArrayEquals(HdUtil.ser256(a.add(b).mod(n)), sum.toByteArray());
+            assertEquals(Secp256k1.point(a.add(b).mod(n)).normalize(), Secp256k1.point(sum).normalize());
+        }
+
+        assertFalse(Scalar256.fromBytes(HdUtil.ser256(n), 0).isBelowN());
+        assertTrue(Scalar256.fromBytes(HdUtil.ser256(n.subtract(BigInteger.ONE)), 0).isValidKey());
+        assertFalse(new Scalar256().isValidKey());
+    }
+
+    @Test
+    public void testFixedBaseTable() {
+
+        BigInteger n = Secp256k1.getN();
+        BigInteger[] scalars = { BigInteger.ZERO, BigInteger.ONE, BigInteger.TWO, n.subtract(BigInteger.ONE),
+                n.subtract(BigInteger.TWO), n.shiftRight(1), BigInteger.ONE.shiftLeft(255),
+                BigInteger.ONE.shiftLeft(32).subtract(BigInteger.ONE), BigInteger.ONE.shiftLeft(224), n,
+                BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE), BigInteger.ONE.negate(),
+                new BigInteger(256, new Random(5)).mod(n) };
+        for (int width = 1; width <= 8; width++) {
+            FixedBaseTable table = new FixedBaseTable(width);
+            for (BigInteger k : scalars) {
+                assertArrayEquals("width " + width + ", k " + k,
+                        Secp256k1.SECP.getG().multiply(k.mod(n)).getEncoded(true), table.multiply(k).getEncoded(true));
+            }
+        }
+    }
+
+    @Test
+    public void testImmutableKeys() {
+
+        byte[] keyData = wallet.getPublicKey(0, Chain.EXTERNAL, 1).getKeyData();
+        HdPublicKey publicKey = HdPublicKey.builder().version(Network.MAINNET.getPublicKeyVersion()).depth(1)
+                .fingerprint(() -> new byte[4]).childNumber(new byte[4]).chainCode(new byte[32]).keyData(keyData)
+                .publicKey(keyData).build();
+        assertArrayEquals(new byte[4], publicKey.getFingerprint());
+        assertEquals(HdKey.SERIALIZED_LENGTH, publicKey.serialize().length);
+
+        // the getters hand out copies of the packed layout
+        publicKey.getPublicKey()[0] = 0;
+        assertArrayEquals(keyData, publicKey.getPublicKey());
+
+        // destroying a handed out key leaves the wallet's cached nodes intact
+        HdPrivateKey privateKey = wallet.getPrivateKey(0, Chain.EXTERNAL, 1);
+        byte[] secret = privateKey.getPrivateKey().clone();
+        privateKey.destroy();
+        assertTrue(privateKey.isDestroyed());
+        assertArrayEquals(new byte[33], privateKey.getKeyData());
+        assertArrayEquals(secret, wallet.getPrivateKey(0, Chain.EXTERNAL, 1).getPrivateKey());
+
+        // keys of a range share a slab, destroying one leaves its neighbours intact
+        HdAddress master = HdKeyGenerator.getAddressFromSeed(Hex.decode("000102030405060708090a0b0c0d0e0f"),
+                Network.MAINNET, CoinType.BITCOIN);
+        HdAddress[] range = HdKeyGenerator.getAddresses(master, 0, 3, false);
+        range[1].getPrivateKey().destroy();
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(HdKeyGenerator.getAddress(master, i, false).getPrivateKey().serialize(),
+                    range[i].getPrivateKey().serialize());
+        }
+
+        // the identifier is handed out as a copy too
+        byte[] identifier = range[0].getIdentifier();
+        identifier[0] ^= 1;
+        assertFalse(Arrays.equals(identifier, range[0].getIdentifier()));
+        assertArrayEquals(Arrays.copyOf(range[0].getIdentifier(), 4), range[0].getFingerprint());
+
+        // destroying the chain, account and root keys handed out by the wallet leaves its
+        // derivation intact
+        wallet.getPrivateKey(0, Chain.EXTERNAL, null).destroy();
+        wallet.getAccountPrivateKey(0).destroy();
+        wallet.getPrivateKey(DerivationPath.parse("m/84'/0'")).destroy();
+        assertFalse(wallet.getAccountPrivateKey(0).isDestroyed());
+        assertEquals("bc1qn944d0p7k2rfmw3qev6j9v0p93dplw4t2lc7lv", wallet.getAddress(0, Chain.EXTERNAL, 5));
+        assertArrayEquals(HdKeyGenerator.getAddress(HdKeyGenerator.getAddressFromSeed(MnemonicGenerator.getSeedFromWordlist(
+                "chase forward bone horn faith kitten steel bind mutual tide wreck novel priority card saddle", "kitten"),
+                Network.MAINNET, CoinType.BITCOIN), DerivationPath.parse("m/84'/0'/3'/1/0")).getPublicKey().getPublicKey(),
+                wallet.getPublicKey(3, Chain.CHANGE, 0).getPublicKey());
+
+        // a node whose own key was destroyed refuses to derive
+        HdPrivateKey masterKey = master.getPrivateKey();
+        HdAddress destroyed = new HdAddress(masterKey, master.getPublicKey(), CoinType.BITCOIN, DerivationPath.MASTER);
+        masterKey.destroy();
+        try {
+            HdKeyGenerator.getAddress(destroyed, 0, true);
+            fail();
+        } catch (CryptoException e) {
+            // destroyed
+        }
+    }
+
+    @Test
+    public void testAddressStore() throws Exception {
+
+        Path file = Files.createTempFile("addresses", ".store");
+        Files.delete(file);
+        try {
+            try (AddressStore store = new AddressStore(file, wallet, 0, Chain.EXTERNAL)) {
+                assertEquals(0, store.size());
+                assertArrayEquals(wallet.getAddresses(0, Chain.EXTERNAL, 0, 8), store.getAddresses(0, 8));
+            }
+
+            // reopened, the stored leaves are served from the file
+            try (AddressStore store = new AddressStore(file, wallet, 0, Chain.EXTERNAL)) {
+                assertEquals(8, store.size());
+                assertEquals("bc1qn944d0p7k2rfmw3qev6j9v0p93dplw4t2lc7lv", store.getAddress(5));
+                assertArrayEquals(wallet.getPublicKey(0, Chain.EXTERNAL, 5).getKeyData(), store.getKeyData(5));
+                assertArrayEquals(Hash160.hash(wallet.getPublicKey(0, Chain.EXTERNAL, 5).getKeyData()), store.getHash160(5));
+                assertEquals(wallet.getAddress(0, Chain.EXTERNAL, 10), store.getAddress(10));
+                assertEquals(11, store.size());
+            }
+
+            try {
+                new AddressStore(file, wallet, 0, Chain.CHANGE);
+                fail();
+            } catch (CryptoException e) {
+                // written for another chain
+            }
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(4).putInt(0, 1 << 20), 20);
+            }
+            try {
+                new AddressStore(file, wallet, 0, Chain.EXTERNAL);
+                fail();
+            } catch (CryptoException e) {
+                // the count runs past the end of the file
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testAddressIndex() {
+
+        AddressIndex index = new AddressIndex(AddressIndex.KeyType.HASH160, 16, "bc", 0x00);
+        index.add(wallet, 0, Chain.EXTERNAL, 0, 100);
+        index.add(wallet, 0, Chain.CHANGE, 0, 100);
+        assertEquals(200, index.size());
+
+        long packed = index.getByAddress("bc1qn944d0p7k2rfmw3qev6j9v0p93dplw4t2lc7lv");
+        assertEquals(0, AddressIndex.getAccount(packed));
+        assertEquals(Chain.EXTERNAL, AddressIndex.getChain(packed));
+        assertEquals(5, AddressIndex.getIndex(packed));
+
+        packed = index.get(Hash160.hash(wallet.getPublicKey(0, Chain.CHANGE, 77).getKeyData()));
+        assertEquals(Chain.CHANGE, AddressIndex.getChain(packed));
+        assertEquals(77, AddressIndex.getIndex(packed));
+
+        // the same key as a legacy P2PKH address
+        byte[] payload = new byte[21];
+        System.arraycopy(Hash160.hash(wallet.getPublicKey(0, Chain.CHANGE, 3).getKeyData()), 0, payload, 1, 20);
+        assertEquals(3, AddressIndex.getIndex(index.getByAddress(Base58.encodeWithChecksum(payload))));
+
+        assertEquals(AddressIndex.NOT_FOUND, index.getByAddress("bc1qw508d6qejxtdg4y5r3zarvary0c5xw7kv8f3t4"));
+        assertEquals(AddressIndex.NOT_FOUND, index.getByAddress("bc1qn944d0p7k2rfmw3qev6j9v0p93dplw4t2lc7lw"));
+
+        // the same keys on another network
+        byte[] hash160 = Hash160.hash(wallet.getPublicKey(0, Chain.EXTERNAL, 5).getKeyData());
+        assertEquals(5, AddressIndex.getIndex(index.getByAddress(Bech32.encode("bc", 0, hash160).toUpperCase())));
+        assertEquals(AddressIndex.NOT_FOUND, index.getByAddress(Bech32.encode("tb", 0, hash160)));
+        payload[0] = 0x6f;
+        assertEquals(AddressIndex.NOT_FOUND, index.getByAddress(Base58.encodeWithChecksum(payload)));
+    }
+
+    @Test
+    public void testAddressFilter() {
+
+        AddressFilter filter = new AddressFilter(AddressIndex.KeyType.HASH160, 1000, 0.01);
+        filter.add(wallet, 0, Chain.EXTERNAL, 0, 500);
+        filter = AddressFilter.fromByteArray(filter.toByteArray());
+        filter.add(wallet, 0, Chain.EXTERNAL, 500, 500);
+        assertEquals(1000, filter.size());
+
+        for (int i = 0; i < 1000; i += 97) {
+            assertTrue(filter.mightContain(Hash160.hash(wallet.getPublicKey(0, Chain.EXTERNAL, i).getKeyData())));
+        }
+        byte[] script = new byte[22];
+        script[1] = 0x14;
+        System.arraycopy(Hash160.hash(wallet.getPublicKey(0, Chain.EXTERNAL, 5).getKeyData()), 0, script, 2, 20);
+        assertTrue(filter.mightContainScript(script));
+
+        Random random = new Random(1);
+        byte[] key = new byte[20];
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            random.nextBytes(key);
+            if (filter.mightContain(key))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 300);
+        assertFalse(filter.mightContain(new byte[32]));
+    }
+
+    @Test
+    public void testGapLimitScanner() {
+
+        Set<String> used = new HashSet<>(Arrays.asList(wallet.getAddress(0, Chain.EXTERNAL, 3),
+                wallet.getAddress(0, Chain.EXTERNAL, 12), wallet.getAddress(0, Chain.EXTERNAL, 40),
+                wallet.getAddress(0, Chain.CHANGE, 2), wallet.getAddress(1, Chain.EXTERNAL, 0)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            GapLimitScanner scanner = new GapLimitScanner(wallet, GapLimitScanner.UsageOracle.of(used::contains), 10, 4,
+                    executor);
+            List<GapLimitScanner.Result> results = scanner.discover(2);
+            assertEquals(4, results.size());
+
+            // index 40 is past the gap after 12
+            assertEquals(12, results.get(0).getLastUsedIndex());
+            assertEquals(24, results.get(0).getScannedCount());
+            assertEquals(2, results.get(1).getLastUsedIndex());
+            assertEquals(1, results.get(2).getAccount());
+            assertEquals(0, results.get(2).getLastUsedIndex());
+            assertFalse(results.get(3).isUsed());
+            assertEquals(12, results.get(3).getScannedCount());
+
+            // at most the batch derived ahead is derived past the gap
+            AtomicInteger derived = new AtomicInteger();
+            CountDownLatch secondBatch = new CountDownLatch(1);
+            AbstractWallet counting = new Bip84Wallet(wallet.getPrivateKey(DerivationPath.parse("m/84'/0'")).serialize()) {
+
+                @Override
+                public String[] getAddresses(int account, Chain chain, int fromIndex, int count) {
+                    derived.addAndGet(count);
+                    if (chain == Chain.EXTERNAL && fromIndex == GapLimitScanner.DEFAULT_GAP_LIMIT)
+                        secondBatch.countDown();
+                    return super.getAddresses(account, chain, fromIndex, count);
+                }
+            };
+            results = new GapLimitScanner(counting, GapLimitScanner.UsageOracle.of(used::contains), 10, 4, executor)
+                    .scan(0);
+            assertEquals(24, results.get(0).getScannedCount());
+            assertTrue(derived.get() <= results.get(0).getScannedCount() + results.get(1).getScannedCount() + 2 * 4);
+
+            // with the default gap limit and batch size, the second batch is derived while
+            // the first one is being checked
+            AtomicBoolean derivedAhead = new AtomicBoolean();
+            results = new GapLimitScanner(counting, (account, chain, fromIndex, addresses) -> {
+                if (chain == Chain.EXTERNAL && fromIndex == 0) {
+                    try {
+                        derivedAhead.set(secondBatch.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return GapLimitScanner.UsageOracle.of(used::contains).isUsed(account, chain, fromIndex, addresses);
+            }, GapLimitScanner.DEFAULT_GAP_LIMIT, GapLimitScanner.DEFAULT_GAP_LIMIT, executor).scan(0);
+            assertTrue(derivedAhead.get());
+            assertEquals(12, results.get(0).getLastUsedIndex());
+            assertEquals(40, results.get(0).getScannedCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
 }
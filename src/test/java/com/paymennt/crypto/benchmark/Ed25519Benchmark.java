@@ -0,0 +1,67 @@
+package com.paymennt.crypto.benchmark;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.paymennt.crypto.bip32.crypto.Ed25519;
+
+import net.i2p.crypto.eddsa.EdDSAPrivateKey;
+import net.i2p.crypto.eddsa.EdDSAPublicKey;
+import net.i2p.crypto.eddsa.spec.EdDSAPrivateKeySpec;
+import net.i2p.crypto.eddsa.spec.EdDSAPublicKeySpec;
+
+/**
+ * ed25519 public key computation through the EdDSA key objects, as derivation used to
+ * do it, against {@link Ed25519#publicKey(byte[])}.
+ * <p>
+ * Run with {@code mvn test-compile} followed by
+ * {@code java -cp target/test-classes:target/classes:<test classpath> org.openjdk.jmh.Main Ed25519Benchmark}.
+ *
+ * @author asendar
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Ed25519Benchmark {
+
+    private static final int BATCH = 64;
+
+    private byte[][] seeds;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        SecureRandom random = new SecureRandom();
+        seeds = new byte[BATCH][32];
+        for (byte[] seed : seeds)
+            random.nextBytes(seed);
+    }
+
+    @Benchmark
+    public byte[] keyObjects() {
+        EdDSAPrivateKey sk = new EdDSAPrivateKey(new EdDSAPrivateKeySpec(seeds[next++ & (BATCH - 1)], Ed25519.ED25519SPEC));
+        EdDSAPublicKey pk = new EdDSAPublicKey(new EdDSAPublicKeySpec(sk.getA(), sk.getParams()));
+        return pk.getAbyte();
+    }
+
+    @Benchmark
+    public byte[] direct() {
+        return Ed25519.publicKey(seeds[next++ & (BATCH - 1)]);
+    }
+}
@@ -0,0 +1,68 @@
+package com.paymennt.crypto.benchmark;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.math.ec.ECPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.paymennt.crypto.bip32.crypto.FixedBaseTable;
+import com.paymennt.crypto.bip32.crypto.Secp256k1;
+
+/**
+ * Generator multiplication through {@link FixedBaseTable} at several window widths,
+ * against BouncyCastle's {@code G.multiply}.
+ * <p>
+ * Run with {@code mvn test-compile} followed by
+ * {@code java -cp target/test-classes:target/classes:<test classpath> org.openjdk.jmh.Main FixedBaseBenchmark}.
+ *
+ * @author asendar
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FixedBaseBenchmark {
+
+    @Param({ "2", "4", "6", "8" })
+    private int width;
+
+    private FixedBaseTable table;
+
+    private BigInteger[] scalars;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        table = new FixedBaseTable(width);
+        SecureRandom random = new SecureRandom();
+        scalars = new BigInteger[1024];
+        for (int i = 0; i < scalars.length; i++)
+            scalars[i] = new BigInteger(256, random).mod(Secp256k1.getN());
+    }
+
+    @Benchmark
+    public ECPoint generatorMultiply() {
+        return Secp256k1.SECP.getG().multiply(scalars[next++ & 1023]).normalize();
+    }
+
+    @Benchmark
+    public ECPoint fixedBaseTable() {
+        return table.multiply(scalars[next++ & 1023]).normalize();
+    }
+}
@@ -0,0 +1,63 @@
+package com.paymennt.crypto.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.paymennt.crypto.bip39.Pbkdf2HmacSha512;
+
+/**
+ * The BIP39 seed stretch, 2048 rounds of PBKDF2-HMAC-SHA512, through the JCA
+ * {@code PBKDF2WithHmacSHA512} factory against {@link Pbkdf2HmacSha512}.
+ * <p>
+ * Run with {@code mvn test-compile} followed by
+ * {@code java -cp target/test-classes:target/classes:<test classpath> org.openjdk.jmh.Main Pbkdf2Benchmark}.
+ *
+ * @author asendar
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Pbkdf2Benchmark {
+
+    private static final String WORDS = "chase forward bone horn faith kitten steel bind mutual tide wreck novel priority card saddle";
+
+    private static final byte[] SALT = "mnemonickitten".getBytes(StandardCharsets.UTF_8);
+
+    private SecretKeyFactory factory;
+
+    private Pbkdf2HmacSha512 pbkdf2;
+
+    @Setup
+    public void setup() throws Exception {
+        factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
+        pbkdf2 = new Pbkdf2HmacSha512();
+    }
+
+    @Benchmark
+    public byte[] jca() throws Exception {
+        return factory.generateSecret(new PBEKeySpec(WORDS.toCharArray(), SALT, 2048, 512)).getEncoded();
+    }
+
+    @Benchmark
+    public byte[] engine() {
+        return pbkdf2.derive(WORDS.getBytes(StandardCharsets.UTF_8), SALT, 2048, 64);
+    }
+}